@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.Map;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/**
+ * Compares the per-request correlation work of a requestor before and after {@link CorrelationIds}: create a
+ * correlation ID and register the request, then correlate the reply for a request sent {@code inFlight} requests
+ * earlier (its correlation ID prefixed with "ID:", as some providers do) and remove it.  The long-keyed map isn't
+ * thread-safe, so, as in {@code AsyncRequestor}, each access to it takes a lock, which is uncontended here.
+ * Run with {@code -prof gc} to also compare the allocation per request.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CorrelationBenchmark {
+
+    private static final Object PENDING = new Object();
+
+    @Param({"100", "10000"})
+    public int inFlight;
+
+    // the original: UUIDs, replaceAll() and a String-keyed concurrent map
+    private Map<String,Object> uuidPending;
+    private String[] uuidReplies;  // ring of the reply correlation IDs for the requests in flight
+
+    // compact IDs and a long-keyed map, locked around each access as AsyncRequestor does
+    private CorrelationIds correlationIds;
+    private LongObjectHashMap<Object> compactPending;
+    private String[] compactReplies;
+
+    private int next = 0;
+
+    @Setup
+    public void setup() {
+        uuidPending = new ConcurrentHashMap<>();
+        uuidReplies = new String[inFlight];
+        correlationIds = new CorrelationIds();
+        compactPending = new LongObjectHashMap<>(inFlight);
+        compactReplies = new String[inFlight];
+        for (int i = 0; i < inFlight; i++) {
+            String uuid = UUID.randomUUID().toString();
+            uuidPending.put(uuid, PENDING);
+            uuidReplies[i] = "ID:" + uuid;
+            long id = correlationIds.nextId();
+            compactPending.put(id, PENDING);
+            compactReplies[i] = "ID:" + correlationIds.format(id);
+        }
+    }
+
+    @Benchmark
+    public Object uuidAndRegex() {
+        String correlationId = UUID.randomUUID().toString();
+        uuidPending.put(correlationId, PENDING);
+        String reply = uuidReplies[next];
+        uuidReplies[next] = "ID:" + correlationId;  // what the reply to this request will carry
+        next = (next + 1) % inFlight;
+        return uuidPending.remove(reply.replaceAll("ID:", ""));
+    }
+
+    @Benchmark
+    public Object compactIds() {
+        long id = correlationIds.nextId();
+        String correlationId = correlationIds.format(id);
+        synchronized (compactPending) {  // registered on the sending thread
+            compactPending.put(id, PENDING);
+        }
+        String reply = compactReplies[next];
+        compactReplies[next] = "ID:" + correlationId;  // what the reply to this request will carry
+        next = (next + 1) % inFlight;
+        long replyId = correlationIds.parse(reply);
+        synchronized (compactPending) {  // and correlated on the reply's dispatcher thread
+            return compactPending.remove(replyId);
+        }
+    }
+}
@@ -0,0 +1,88 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.concurrent.TimeUnit;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+/**
+ * Compares the per-message topic handling of NonPersistentProcessor before and after {@link TopicMatcher}: match the
+ * inbound topic against the subscription, then build the outbound topic from its last level(s).
+ * Run with {@code -prof gc} to also compare the allocation per message.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TopicMatcherBenchmark {
+
+    private static final String TOPIC_PREFIX = "solace/samples/";
+    private static final String OUTBOUND_TOPIC_PREFIX = TOPIC_PREFIX + "jms/direct/upper/";
+
+    @Param({"solace/samples/jms/direct/pub/A", "solace/samples/jms/direct/pub/A/B/C/D", "solace/samples/jms/other/B"})
+    public String inboundTopic;
+
+    private final TopicMatcher matcher = TopicMatcher.compile(TOPIC_PREFIX + "*/direct/pub/>");
+    private final StringBuilder outboundTopicBuilder = new StringBuilder(OUTBOUND_TOPIC_PREFIX);
+
+    /** the original code: String.matches(), split() and a new StringBuilder per message */
+    @Benchmark
+    public void regexAndSplit(Blackhole blackhole) {
+        if (inboundTopic.matches(TOPIC_PREFIX + ".+?/direct/pub/.*")) {
+            String[] inboundTopicLevels = inboundTopic.split("/", 6);
+            blackhole.consume(new StringBuilder(TOPIC_PREFIX).append("jms")
+                    .append("/direct/upper/").append(inboundTopicLevels[5]).toString());
+        }
+    }
+
+    /** the precompiled matcher and in-place level extraction into a reused builder */
+    @Benchmark
+    public void compiledMatcher(Blackhole blackhole) {
+        if (matcher.matches(inboundTopic)) {
+            outboundTopicBuilder.setLength(OUTBOUND_TOPIC_PREFIX.length());
+            TopicLevels.appendFromLevel(outboundTopicBuilder, inboundTopic, 5);
+            blackhole.consume(outboundTopicBuilder.toString());  // the processor still needs a String for createTopic()
+        }
+    }
+
+    /** just String.matches(), which compiles the regex every call, without building the outbound topic */
+    @Benchmark
+    public boolean regexMatchOnly() {
+        return inboundTopic.matches(TOPIC_PREFIX + ".+?/direct/pub/.*");
+    }
+
+    /** just the precompiled TopicMatcher's level-by-level match, without building the outbound topic */
+    @Benchmark
+    public boolean compiledMatchOnly() {
+        return matcher.matches(inboundTopic);
+    }
+}
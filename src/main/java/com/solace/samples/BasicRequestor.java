@@ -122,7 +122,12 @@ public class BasicRequestor {
         }
 
         // Apache Qpid JMS prefixes correlation ID with string "ID:" so remove such prefix for interoperability
-        if (!reply.getJMSCorrelationID().replaceAll("ID:", "").equals(correlationId)) {
+        // (a plain prefix check, String.replaceAll() would compile a regex for every reply)
+        String replyCorrelationId = reply.getJMSCorrelationID();
+        if (replyCorrelationId.startsWith("ID:")) {
+            replyCorrelationId = replyCorrelationId.substring("ID:".length());
+        }
+        if (!replyCorrelationId.equals(correlationId)) {
             throw new Exception("Received invalid correlationID in reply message.");
         }
 
@@ -0,0 +1,244 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.AimdLimit;
+import com.solace.samples.jms.util.Backoff;
+import com.solace.samples.jms.util.LatencyStats;
+import com.solace.samples.jms.util.RingBuffer;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import com.solacesystems.jms.SupportedProperty;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * A Guaranteed (persistent) consumer with tunable flow control, that adapts how much it buffers to how fast it can
+ * process messages.
+ * <p>
+ * Two levels of windowing decide how many messages are held in this process.  The broker sends a flow up to
+ * {@code windowSize} unacknowledged messages ahead, and the API acknowledges them to the broker (as received, not
+ * processed) every {@code ackThreshold} percent of the window, or every {@code ackTimerMs}.  These are fixed for the
+ * life of a flow.  Then the messages are handed to handler threads through an in-process queue, and how deep that
+ * queue may get is the adaptive part: an {@link AimdLimit} on the queue depth grows it while the time messages
+ * spend queued stays under {@code targetLatencyMs} and the limit is actually being hit, and halves it as soon as
+ * queueing exceeds the target.  When the queue is at its limit the JMS dispatcher thread waits, the API's buffer
+ * fills, and the broker stops sending, so a slow handler pushes back to the broker instead of building an
+ * unbounded backlog on the heap; {@code maxInProcess} is a hard cap on it.
+ * <p>
+ * Messages are acknowledged with {@code SOL_CLIENT_ACKNOWLEDGE} by the handler threads once processed, so a message
+ * is only removed from the queue once it has been handled.  Every second it prints the msgs/s, the depth limit and
+ * queue depth, time the dispatcher spent waiting, and the queueing latency percentiles.  Optional settings, passed as
+ * JVM system properties:
+ * <ul>
+ *   <li>{@code windowSize} - the flow's window, max unacknowledged messages the broker sends ahead, 1-255 (default 255)
+ *   <li>{@code ackThreshold} - percent of the window received before the API acknowledges, 1-75 (default 60)
+ *   <li>{@code ackTimerMs} - max time before the API acknowledges what it has received, 20-1500 (default 1000)
+ *   <li>{@code handlerThreads} - number of handler threads (default 1)
+ *   <li>{@code processingTimeMicros} - simulated work per message (default 0)
+ *   <li>{@code targetLatencyMs} - max time a message should wait in the in-process queue (default 10)
+ *   <li>{@code maxInProcess} - max messages in the in-process queue, whatever the adaptive limit (default 10000)
+ *   <li>{@code queueName} - the queue to consume from, created if it doesn't exist (default Q/tutorial)
+ * </ul>
+ */
+public class AdaptiveWindowQueueConsumer {
+
+    private static final String SAMPLE_NAME = AdaptiveWindowQueueConsumer.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final int WINDOW_SIZE = Math.max(1, Math.min(255, Integer.getInteger("windowSize", 255)));
+    private static final int ACK_THRESHOLD = Math.max(1, Math.min(75, Integer.getInteger("ackThreshold", 60)));
+    private static final int ACK_TIMER_MS = Math.max(20, Math.min(1500, Integer.getInteger("ackTimerMs", 1000)));
+    private static final int NUM_HANDLER_THREADS = Math.max(1, Integer.getInteger("handlerThreads", 1));
+    private static final long PROCESSING_TIME_NANOS = TimeUnit.MICROSECONDS.toNanos(Integer.getInteger("processingTimeMicros", 0));
+    private static final long TARGET_LATENCY_NANOS = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("targetLatencyMs", 10));
+    private static final int MAX_IN_PROCESS = Math.max(1, Integer.getInteger("maxInProcess", 10000));
+    private static final String QUEUE_NAME = System.getProperty("queueName", "Q/tutorial");
+    private static final long CONTROL_INTERVAL_MS = 100;  // how often the depth limit is adjusted
+
+    private static final RingBuffer<Received> inProcessQueue = new RingBuffer<>(MAX_IN_PROCESS);
+    // starts at one window's worth, grows by 10% of a window per healthy interval, halves on overload
+    private static final AimdLimit depthLimit = new AimdLimit(1, MAX_IN_PROCESS, Math.min(WINDOW_SIZE, MAX_IN_PROCESS),
+            Math.max(1, WINDOW_SIZE / 10), 0.5);
+    private static final LongAccumulator maxQueueWaitNanos = new LongAccumulator(Long::max, 0);  // per control interval
+    private static final LongAdder limitWaits = new LongAdder();      // per control interval
+    private static final LongAdder limitWaitNanos = new LongAdder();  // per report interval
+    private static final LongAdder msgRecvCounter = new LongAdder();
+    private static final LongAdder msgHandledCounter = new LongAdder();
+    private static LatencyStats queueLatencyStats;
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DwindowSize=<1-255> -DackThreshold=<1-75 %%> -DackTimerMs=<20-1500>%n");
+            System.out.printf("            -DhandlerThreads=<num> -DprocessingTimeMicros=<us> -DtargetLatencyMs=<ms>%n");
+            System.out.printf("            -DmaxInProcess=<num msgs> -DqueueName=<queue>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(20);      // recommended settings
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue if it doesn't exist
+        // the Guaranteed flow's windowing, fixed for the life of the flow
+        connectionFactory.setReceiveAdWindowSize(WINDOW_SIZE);
+        connectionFactory.setReceiveAdAckThreshold(ACK_THRESHOLD);
+        connectionFactory.setReceiveAdAckTimerInMillis(ACK_TIMER_MS);
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        queueLatencyStats = new LatencyStats(null);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < NUM_HANDLER_THREADS; i++) {
+            threads.add(new Thread(AdaptiveWindowQueueConsumer::handlerLoop, SAMPLE_NAME + "-handler-" + i));
+        }
+        threads.add(new Thread(AdaptiveWindowQueueConsumer::controlLoop, SAMPLE_NAME + "-control"));
+        for (Thread thread : threads) {
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        // individual acknowledgements, done by the handler threads once a message is processed
+        Session session = connection.createSession(false, SupportedProperty.SOL_CLIENT_ACKNOWLEDGE);
+        Queue queue = session.createQueue(QUEUE_NAME);
+        MessageConsumer consumer = session.createConsumer(queue);
+        consumer.setMessageListener(message -> {  // lambda, MessageListener.onMessage(message)
+            msgRecvCounter.increment();
+            if (inProcessQueue.size() >= depthLimit.getLimit()) {  // at the limit, stop taking from the API
+                limitWaits.increment();
+                long waitStart = System.nanoTime();
+                Backoff backoff = new Backoff();
+                while (inProcessQueue.size() >= depthLimit.getLimit() && !isShutdown) {
+                    backoff.idle();
+                }
+                limitWaitNanos.add(System.nanoTime() - waitStart);
+            }
+            Backoff backoff = null;
+            while (!inProcessQueue.offer(new Received(message)) && !isShutdown) {  // only if at maxInProcess
+                if (backoff == null) {
+                    backoff = new Backoff();
+                }
+                backoff.idle();
+            }
+        });
+        connection.start();  // start receiving messages
+
+        System.out.printf("%s %s connected, and running with a flow window of %d, ack threshold %d%%. Press [ENTER] to quit.%n",
+                API, SAMPLE_NAME, WINDOW_SIZE, ACK_THRESHOLD);
+        long lastIncreases = 0, lastDecreases = 0;
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                long increases = depthLimit.getIncreases(), decreases = depthLimit.getDecreases();
+                System.out.printf("%s Received msgs/s: %,d, Handled msgs/s: %,d, depth limit: %,d (+%d/-%d), queue depth: %,d, dispatcher waited %,d ms%n",
+                        API, msgRecvCounter.sumThenReset(), msgHandledCounter.sumThenReset(), depthLimit.getLimit(),
+                        increases - lastIncreases, decreases - lastDecreases, inProcessQueue.size(),
+                        TimeUnit.NANOSECONDS.toMillis(limitWaitNanos.sumThenReset()));
+                System.out.printf("    queueing latency: %s%n", queueLatencyStats.intervalSummary());
+                lastIncreases = increases;
+                lastDecreases = decreases;
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        connection.stop();  // stop receiving, then let the handlers finish what's queued
+        isShutdown = true;
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        consumer.close();
+        session.close();
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** adjusts the in-process depth limit from what the last interval looked like */
+    private static void controlLoop() {
+        while (!isShutdown) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(CONTROL_INTERVAL_MS));
+            boolean overloaded = maxQueueWaitNanos.getThenReset() > TARGET_LATENCY_NANOS;
+            boolean limitReached = limitWaits.sumThenReset() > 0;
+            depthLimit.update(overloaded, limitReached);
+        }
+    }
+
+    /** on a handler thread */
+    private static void handlerLoop() {
+        Backoff backoff = new Backoff();
+        while (true) {
+            Received received = inProcessQueue.poll();
+            if (received == null) {
+                if (isShutdown) {
+                    return;
+                }
+                backoff.idle();
+                continue;
+            }
+            backoff.reset();
+            long queueWaitNanos = System.nanoTime() - received.queuedNanos;
+            queueLatencyStats.recordNanos(queueWaitNanos);
+            maxQueueWaitNanos.accumulate(queueWaitNanos);
+            try {
+                if (PROCESSING_TIME_NANOS > 0) {  // pretend to do some work
+                    LockSupport.parkNanos(PROCESSING_TIME_NANOS);
+                }
+                received.message.acknowledge();  // SOL_CLIENT_ACKNOWLEDGE: just this message, now it's been processed
+                msgHandledCounter.increment();
+            } catch (JMSException e) {
+                System.out.println("### Caught at message.acknowledge() " + e);
+            }
+        }
+    }
+
+    /** a message in the in-process queue */
+    private static class Received {
+        private final Message message;
+        private final long queuedNanos = System.nanoTime();
+
+        private Received(Message message) {
+            this.message = message;
+        }
+    }
+}
@@ -0,0 +1,292 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.CorrelationIds;
+import com.solace.samples.jms.util.HashedWheelTimer;
+import com.solace.samples.jms.util.LongObjectHashMap;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TemporaryQueue;
+import javax.jms.TextMessage;
+
+/**
+ * An asynchronous Requestor: unlike BasicRequestor, which blocks for each reply, it keeps many requests in flight
+ * over a single reply queue, so throughput isn't limited to one round trip per request per thread.
+ * <p>
+ * Each request returns a {@link CompletableFuture} of its reply.  All replies come back on one TemporaryQueue, and
+ * are matched to their request by JMSCorrelationID.  The correlation IDs are {@link CorrelationIds}: a prefix for
+ * this requestor plus a counter, parsed back to a long without regex or allocation, and looked up in a primitive
+ * long-keyed map, so correlating a reply costs a few nanoseconds and creates no garbage.  Each request also gets a timeout on a
+ * {@link HashedWheelTimer}, which is cheap to schedule and cancel for thousands of requests at once.  Futures are
+ * completed on the JMS dispatcher thread (or the timer thread), so callbacks on them must be quick, or use one of
+ * the {@code ...Async} methods of CompletableFuture.
+ * <p>
+ * Run it with BasicReplier (which replies once), or with a long-running replier.  Optional settings, passed as JVM
+ * system properties:
+ * <ul>
+ *   <li>{@code maxInFlight} - max requests waiting for a reply at once (default 1000)
+ *   <li>{@code replyTimeoutMs} - how long to wait for each reply (default 10000)
+ * </ul>
+ */
+public class AsyncRequestor implements AutoCloseable {
+
+    private static final String SAMPLE_NAME = AsyncRequestor.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final String REQUEST_TOPIC_NAME = "T/GettingStarted/requests";
+    private static final int MAX_IN_FLIGHT = Math.max(1, Integer.getInteger("maxInFlight", 1000));
+    private static final long REPLY_TIMEOUT_MS = Long.getLong("replyTimeoutMs", 10000);
+
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    private final Session requestSession;    // only used while holding its lock, a Session is single-threaded
+    private final MessageProducer requestProducer;
+    private final Session replySession;      // only used by the JMS dispatcher thread
+    private final MessageConsumer replyConsumer;
+    private final TemporaryQueue replyToQueue;
+    private final long replyTimeoutMs;
+    private final HashedWheelTimer timer;
+    private final CorrelationIds correlationIds = new CorrelationIds();
+    // request ID -> request waiting for a reply; guarded by its own lock, held only for a map operation
+    private final LongObjectHashMap<PendingRequest> pendingRequests = new LongObjectHashMap<>(1024);
+    private final LongAdder timeoutCounter = new LongAdder();
+    private final LongAdder unmatchedReplyCounter = new LongAdder();
+
+    /**
+     * @param connection the connection to use; replies are only received once it is started
+     * @param replyTimeoutMs how long to wait for each reply
+     * @throws JMSException if the sessions or reply queue can't be created
+     */
+    public AsyncRequestor(Connection connection, long replyTimeoutMs) throws JMSException {
+        this.replyTimeoutMs = replyTimeoutMs;
+        requestSession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        requestProducer = requestSession.createProducer(null);
+        requestProducer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        requestProducer.setDisableMessageTimestamp(true);
+        replySession = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        replyToQueue = replySession.createTemporaryQueue();  // one reply queue for all the requests
+        replyConsumer = replySession.createConsumer(replyToQueue);
+        replyConsumer.setMessageListener(this::onReply);
+        // 10 ms resolution is plenty for timeouts in seconds; 1024 buckets is a ~10 s rotation
+        timer = new HashedWheelTimer(SAMPLE_NAME + "-timer", 10, TimeUnit.MILLISECONDS, 1024);
+    }
+
+    /**
+     * Sends a request.
+     * @param destination where to send it
+     * @param text the request payload
+     * @return the reply, or a {@link TimeoutException} if none arrives in time
+     * @throws JMSException if the request can't be sent
+     */
+    public CompletableFuture<Message> request(Destination destination, String text) throws JMSException {
+        long requestId = correlationIds.nextId();
+        String correlationId = correlationIds.format(requestId);
+        PendingRequest pending = new PendingRequest();
+        synchronized (pendingRequests) {
+            pendingRequests.put(requestId, pending);  // before sending, the reply could beat us back
+        }
+        pending.timeout = timer.newTimeout(() -> {
+            if (removePending(requestId) != null) {  // else the reply won the race
+                timeoutCounter.increment();
+                pending.future.completeExceptionally(new TimeoutException(
+                        "No reply in " + replyTimeoutMs + " ms for correlation ID " + correlationId));
+            }
+        }, replyTimeoutMs, TimeUnit.MILLISECONDS);
+        try {
+            synchronized (requestSession) {
+                TextMessage request = requestSession.createTextMessage(text);
+                // The application must put the destination of the reply in the replyTo field of the request
+                request.setJMSReplyTo(replyToQueue);
+                // The application must put a correlation ID in the request
+                request.setJMSCorrelationID(correlationId);
+                requestProducer.send(destination, request);
+            }
+        } catch (JMSException e) {
+            removePending(requestId);
+            pending.timeout.cancel();
+            throw e;
+        }
+        return pending.future;
+    }
+
+    /** @return the number of requests waiting for a reply */
+    public int getInFlightCount() {
+        synchronized (pendingRequests) {
+            return pendingRequests.size();
+        }
+    }
+
+    /** @return the number of requests timed out since the previous call */
+    public long getAndResetTimeoutCount() {
+        return timeoutCounter.sumThenReset();
+    }
+
+    /** @return the number of replies that matched no request (e.g. arrived after the timeout) since the previous call */
+    public long getAndResetUnmatchedReplyCount() {
+        return unmatchedReplyCounter.sumThenReset();
+    }
+
+    /** on the JMS dispatcher thread */
+    private void onReply(Message reply) {
+        try {
+            // also skips the "ID:" prefix that Apache Qpid JMS adds, for interoperability
+            long requestId = correlationIds.parse(reply.getJMSCorrelationID());
+            PendingRequest pending = requestId == CorrelationIds.NOT_OURS ? null : removePending(requestId);
+            if (pending == null) {
+                unmatchedReplyCounter.increment();
+                return;
+            }
+            HashedWheelTimer.Timeout timeout = pending.timeout;
+            if (timeout != null) {  // else the reply beat request() to setting it, and the timeout will find nothing
+                timeout.cancel();
+            }
+            pending.future.complete(reply);
+        } catch (JMSException e) {
+            System.out.println("### Caught in onReply() " + e);
+        }
+    }
+
+    /** Fails all the requests still waiting for a reply, and closes the sessions. */
+    @Override
+    public void close() throws JMSException {
+        timer.close();
+        replyConsumer.close();
+        synchronized (pendingRequests) {
+            pendingRequests.forEachValue(pending ->
+                    pending.future.completeExceptionally(new IllegalStateException(SAMPLE_NAME + " closed")));
+            pendingRequests.clear();
+        }
+        replySession.close();
+        synchronized (requestSession) {
+            requestProducer.close();
+            requestSession.close();
+        }
+    }
+
+    private PendingRequest removePending(long requestId) {
+        synchronized (pendingRequests) {
+            return pendingRequests.remove(requestId);
+        }
+    }
+
+    private static class PendingRequest {
+        private final CompletableFuture<Message> future = new CompletableFuture<>();
+        private volatile HashedWheelTimer.Timeout timeout;  // set just after the request is registered
+    }
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DmaxInFlight=<num requests> -DreplyTimeoutMs=<ms>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(2);       // recommended settings
+        connectionFactory.setConnectRetriesPerHost(2);  // recommended settings
+        connectionFactory.setXmlPayload(false);         // use the normal payload section for TextMessage
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        AsyncRequestor requestor = new AsyncRequestor(connection, REPLY_TIMEOUT_MS);
+        connection.start();  // start receiving replies
+        Destination requestTopic;
+        try (Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE)) {
+            requestTopic = session.createTopic(REQUEST_TOPIC_NAME);  // a Topic can be used by any Session
+        }
+
+        // send requests from this thread as fast as replies free up in-flight slots
+        Semaphore inFlightSlots = new Semaphore(MAX_IN_FLIGHT);
+        LongAdder replyCounter = new LongAdder();
+        LongAdder failureCounter = new LongAdder();
+        Thread requestThread = new Thread(() -> {
+            long requestNum = 0;
+            try {
+                while (!isShutdown) {
+                    if (!inFlightSlots.tryAcquire(100, TimeUnit.MILLISECONDS)) {
+                        continue;  // all slots busy, check for shutdown
+                    }
+                    requestor.request(requestTopic, "Sample Request " + requestNum++).whenComplete((reply, e) -> {
+                        inFlightSlots.release();
+                        if (e == null) {
+                            replyCounter.increment();
+                        } else {
+                            failureCounter.increment();
+                        }
+                    });
+                }
+            } catch (JMSException e) {
+                System.out.println("### Caught at request() " + e);
+                isShutdown = true;
+            } catch (InterruptedException e) {
+                // shutting down
+            }
+        }, SAMPLE_NAME + "-requests");
+        requestThread.setDaemon(true);
+        requestThread.start();
+
+        System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                System.out.printf("%s Replies/s: %,d, failed: %,d (timed out %,d), in flight: %,d, unmatched replies: %,d%n",
+                        API, replyCounter.sumThenReset(), failureCounter.sumThenReset(),
+                        requestor.getAndResetTimeoutCount(), requestor.getInFlightCount(),
+                        requestor.getAndResetUnmatchedReplyCount());
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        requestThread.join(1000);
+        connection.stop();
+        requestor.close();
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+}
@@ -0,0 +1,186 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * A high-rate Guaranteed (persistent) consumer that coalesces its acknowledgements.  QueueConsumer uses
+ * {@code SOL_CLIENT_ACKNOWLEDGE}, where {@code acknowledge()} acknowledges just that one message; this uses the
+ * standard JMS {@code CLIENT_ACKNOWLEDGE}, where one {@code acknowledge()} acknowledges every message the Session
+ * has received so far, so one call can cover many messages.
+ * <p>
+ * It acknowledges every {@code ackEvery} messages, or {@code ackIntervalMs} after the oldest unacknowledged message,
+ * whichever comes first, and always before shutting down.  The trade-off: fewer acknowledgements mean less
+ * overhead, but if the consumer dies, every unacknowledged message is redelivered (to it, or another consumer), so
+ * processing must tolerate duplicates up to that window.  Messages are received with a synchronous
+ * {@code receive(timeout)}, so a quiet queue doesn't leave messages unacknowledged for long.
+ * <p>
+ * Every second it prints the msgs/s, acknowledgements/s, average messages per acknowledgement (and what triggered
+ * them), the unacknowledged count, and redelivered messages.  Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code ackEvery} - max messages per acknowledgement (default 100)
+ *   <li>{@code ackIntervalMs} - max time a message waits to be acknowledged (default 100)
+ *   <li>{@code queueName} - the queue to consume from, created if it doesn't exist (default Q/tutorial)
+ * </ul>
+ */
+public class BatchedAckQueueConsumer {
+
+    private static final String SAMPLE_NAME = BatchedAckQueueConsumer.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final int ACK_EVERY = Math.max(1, Integer.getInteger("ackEvery", 100));
+    private static final long ACK_INTERVAL_NANOS = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("ackIntervalMs", 100));
+    private static final String QUEUE_NAME = System.getProperty("queueName", "Q/tutorial");
+    private static final long IDLE_RECEIVE_TIMEOUT_MS = 100;  // with nothing to acknowledge, so shutdown is noticed
+
+    private static final LongAdder msgRecvCounter = new LongAdder();
+    private static final LongAdder msgAckedCounter = new LongAdder();
+    private static final LongAdder countAckCounter = new LongAdder();  // acks triggered by ackEvery
+    private static final LongAdder timedAckCounter = new LongAdder();  // acks triggered by ackIntervalMs
+    private static final LongAdder msgRedeliveredCounter = new LongAdder();
+    private static volatile int unackedCount = 0;  // only written by the receiving thread
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DackEvery=<num msgs> -DackIntervalMs=<ms> -DqueueName=<queue>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(20);      // recommended settings
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue if it doesn't exist
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        // standard CLIENT_ACKNOWLEDGE, not SOL_CLIENT_ACKNOWLEDGE: acknowledge() covers all messages received so far
+        Session session = connection.createSession(false, Session.CLIENT_ACKNOWLEDGE);
+        Queue queue = session.createQueue(QUEUE_NAME);
+        MessageConsumer consumer = session.createConsumer(queue);
+        connection.start();  // start receiving messages
+
+        Thread receiveThread = new Thread(() -> receiveLoop(consumer), SAMPLE_NAME + "-receive");
+        receiveThread.setDaemon(true);
+        receiveThread.start();
+
+        System.out.printf("%s %s connected, and running, acknowledging every %d msgs / %d ms. Press [ENTER] to quit.%n",
+                API, SAMPLE_NAME, ACK_EVERY, TimeUnit.NANOSECONDS.toMillis(ACK_INTERVAL_NANOS));
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                long msgsAcked = msgAckedCounter.sumThenReset();
+                long countAcks = countAckCounter.sumThenReset();
+                long timedAcks = timedAckCounter.sumThenReset();
+                long acks = countAcks + timedAcks;
+                System.out.printf("%s Received msgs/s: %,d, acks/s: %,d (%,d by count, %,d timed), avg msgs/ack: %,.1f, unacked: %,d, redelivered: %,d%n",
+                        API, msgRecvCounter.sumThenReset(), acks, countAcks, timedAcks, acks == 0 ? 0 : (double)msgsAcked / acks,
+                        unackedCount, msgRedeliveredCounter.sumThenReset());
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        receiveThread.join(1000);  // which acknowledges the last messages
+        connection.stop();
+        consumer.close();
+        session.close();
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** on the receiving thread, which owns the Session */
+    private static void receiveLoop(MessageConsumer consumer) {
+        Message lastUnacked = null;
+        int unacked = 0;
+        long ackDeadline = 0;
+        try {
+            while (!isShutdown) {
+                long timeoutMs = IDLE_RECEIVE_TIMEOUT_MS;
+                if (unacked > 0) {  // wait no longer than the oldest unacknowledged message is due
+                    timeoutMs = TimeUnit.NANOSECONDS.toMillis(ackDeadline - System.nanoTime());
+                    if (timeoutMs <= 0) {
+                        acknowledge(lastUnacked, unacked, timedAckCounter);
+                        unackedCount = unacked = 0;
+                        lastUnacked = null;
+                        continue;
+                    }
+                }
+                Message message = consumer.receive(timeoutMs);
+                if (message == null) {
+                    continue;  // timed out, the loop acknowledges if it's due
+                }
+                msgRecvCounter.increment();
+                if (message.getJMSRedelivered()) {  // e.g. a previous consumer died before acknowledging it
+                    msgRedeliveredCounter.increment();
+                }
+                // process the message here, it stays on the queue until it's acknowledged
+                lastUnacked = message;
+                if (unacked++ == 0) {
+                    ackDeadline = System.nanoTime() + ACK_INTERVAL_NANOS;
+                }
+                if (unacked >= ACK_EVERY) {
+                    acknowledge(lastUnacked, unacked, countAckCounter);
+                    unacked = 0;
+                    lastUnacked = null;
+                }
+                unackedCount = unacked;
+            }
+            if (unacked > 0) {  // don't leave the last messages to be redelivered
+                acknowledge(lastUnacked, unacked, timedAckCounter);
+                unackedCount = 0;
+            }
+        } catch (JMSException e) {
+            System.out.println("### Caught at consumer.receive() " + e);
+            isShutdown = true;
+        }
+    }
+
+    private static void acknowledge(Message lastUnacked, int unacked, LongAdder ackCounter) throws JMSException {
+        lastUnacked.acknowledge();  // with CLIENT_ACKNOWLEDGE, also acknowledges all the earlier messages
+        msgAckedCounter.add(unacked);
+        ackCounter.increment();
+    }
+}
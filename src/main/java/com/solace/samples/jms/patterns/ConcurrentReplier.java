@@ -0,0 +1,328 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.Backoff;
+import com.solace.samples.jms.util.ClockCache;
+import com.solace.samples.jms.util.LatencyStats;
+import com.solace.samples.jms.util.RingBuffer;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import com.solacesystems.jms.SupportedProperty;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+
+/**
+ * A long-running Replier that answers requests on a pool of worker threads.  Unlike BasicReplier, which replies to
+ * one request on the JMS dispatcher thread and exits, a slow request here only holds up one worker, not every
+ * request queued behind it.
+ * <p>
+ * The JMS dispatcher thread only hands each request to a shared queue; any free worker takes the next one(s).  A JMS
+ * Session is single-threaded, so each worker sends its replies with its own Session.  The number of requests
+ * accepted but not yet replied to is capped: once the cap is reached the dispatcher thread waits, which stops
+ * consuming and pushes back on the requestors instead of queueing without bound.
+ * <p>
+ * Per-reply overhead is kept down for the usual case where a few requestors send most of the requests: each worker
+ * reuses one reply TextMessage (a send is complete when {@code send()} returns), and caches a producer bound to each
+ * reply destination it has seen, keyed by the Destination itself (a Queue and a Topic of the same name are unequal),
+ * so a reply neither builds a key nor pays for resolving its destination in an unbound send.  With
+ * {@code replyBatchSize} above 1, a worker takes up to that many queued requests at once and sends the replies
+ * grouped by destination, back to back on the same producer.
+ * <p>
+ * Every second it prints requests/s, the in-flight count, and the service time (handling on a worker) and total
+ * time (from receipt, including the wait for a worker) percentiles.  Optional settings, passed as JVM system
+ * properties:
+ * <ul>
+ *   <li>{@code workerThreads} - number of worker threads, each with its own Session (default 4)
+ *   <li>{@code maxInFlight} - max requests accepted but not yet replied to (default 1000)
+ *   <li>{@code serviceTimeMicros} - simulated work per request, to see the effect of a slow handler (default 0)
+ *   <li>{@code replyBatchSize} - max queued requests a worker takes at once, replying grouped by destination (default 1)
+ *   <li>{@code replyCacheSize} - max reply destinations, per worker, with a cached producer (default 64)
+ * </ul>
+ */
+public class ConcurrentReplier {
+
+    private static final String SAMPLE_NAME = ConcurrentReplier.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final String REQUEST_TOPIC_NAME = "T/GettingStarted/requests";
+    private static final int NUM_WORKER_THREADS = Math.max(1, Integer.getInteger("workerThreads", 4));
+    private static final int MAX_IN_FLIGHT = Math.max(1, Integer.getInteger("maxInFlight", 1000));
+    private static final long SERVICE_TIME_NANOS = TimeUnit.MICROSECONDS.toNanos(Integer.getInteger("serviceTimeMicros", 0));
+    private static final int REPLY_BATCH_SIZE = Math.max(1, Integer.getInteger("replyBatchSize", 1));
+    private static final int REPLY_CACHE_SIZE = Math.max(1, Integer.getInteger("replyCacheSize", 64));
+
+    // requests waiting for a worker, never more than the in-flight cap
+    private static final RingBuffer<Request> requestQueue = new RingBuffer<>(MAX_IN_FLIGHT);
+    private static final List<Worker> workers = new CopyOnWriteArrayList<>();
+    private static final Semaphore inFlightSlots = new Semaphore(MAX_IN_FLIGHT);
+    private static final AtomicInteger inFlightCounter = new AtomicInteger();
+    private static final LongAdder requestCounter = new LongAdder();
+    private static final LongAdder replyCounter = new LongAdder();
+    private static final LongAdder noReplyToCounter = new LongAdder();
+    private static final LongAdder inFlightWaitNanos = new LongAdder();
+    private static LatencyStats serviceTimeStats;
+    private static LatencyStats totalTimeStats;
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DworkerThreads=<num> -DmaxInFlight=<num requests> -DserviceTimeMicros=<us>%n");
+            System.out.printf("            -DreplyBatchSize=<num requests> -DreplyCacheSize=<num destinations>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(2);       // recommended settings
+        connectionFactory.setConnectRetriesPerHost(2);  // recommended settings
+        connectionFactory.setXmlPayload(false);         // use the normal payload section for TextMessage
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        serviceTimeStats = new LatencyStats(null);
+        totalTimeStats = new LatencyStats(null);
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < NUM_WORKER_THREADS; i++) {
+            Worker worker = new Worker(connection.createSession(false, Session.AUTO_ACKNOWLEDGE));
+            workers.add(worker);
+            Thread thread = new Thread(worker, SAMPLE_NAME + "-worker-" + i);
+            thread.setDaemon(true);
+            workerThreads.add(thread);
+            thread.start();
+        }
+
+        // the consuming Session is only used by the JMS dispatcher thread
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageConsumer requestConsumer = session.createConsumer(session.createTopic(REQUEST_TOPIC_NAME));
+        requestConsumer.setMessageListener(request -> {  // lambda, MessageListener.onMessage(message)
+            long receivedNanos = System.nanoTime();
+            requestCounter.increment();
+            try {
+                if (!inFlightSlots.tryAcquire()) {  // at the cap, wait for a worker to finish a request
+                    inFlightSlots.acquire();
+                    inFlightWaitNanos.add(System.nanoTime() - receivedNanos);
+                }
+            } catch (InterruptedException e) {
+                isShutdown = true;
+                return;
+            }
+            inFlightCounter.incrementAndGet();
+            requestQueue.offer(new Request(request, receivedNanos));  // always room, it holds the in-flight cap
+        });
+
+        connection.start();  // start receiving requests
+
+        System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
+        while (System.in.available() == 0 && !isShutdown) {  // time to loop!
+            try {
+                Thread.sleep(1000);  // take a pause
+                System.out.printf("%s Requests/s: %,d, Replies/s: %,d, in flight: %,d, no reply-to: %,d, waited %,d ms at the in-flight cap%n",
+                        API, requestCounter.sumThenReset(), replyCounter.sumThenReset(), inFlightCounter.get(),
+                        noReplyToCounter.sumThenReset(), TimeUnit.NANOSECONDS.toMillis(inFlightWaitNanos.sumThenReset()));
+                System.out.printf("    service time: %s%n    total time:   %s%n",
+                        serviceTimeStats.intervalSummary(), totalTimeStats.intervalSummary());
+                printReplyCacheReport();
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        connection.stop();
+        for (Thread thread : workerThreads) {
+            thread.join(1000);  // let the workers finish what's queued
+        }
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    private static void printReplyCacheReport() {
+        long hits = 0, misses = 0, evictions = 0, size = 0;
+        for (Worker worker : workers) {
+            hits += worker.replyProducers.getHits();
+            misses += worker.replyProducers.getMisses();
+            evictions += worker.replyProducers.getEvictions();
+            size += worker.replyProducers.size();
+        }
+        System.out.printf("    reply producer cache: %,d entries, total hits %,d, misses %,d, evictions %,d%n",
+                size, hits, misses, evictions);
+    }
+
+    /** a request waiting for a worker */
+    private static class Request {
+        private final Message message;
+        private final long receivedNanos;
+        private MessageProducer replyProducer;  // set by the worker
+
+        private Request(Message message, long receivedNanos) {
+            this.message = message;
+            this.receivedNanos = receivedNanos;
+        }
+    }
+
+    /** a worker thread, with its own Session, reply producers and reusable reply message */
+    private static class Worker implements Runnable {
+        private final Session session;
+        // reply destination -> producer bound to it, only used by this worker's thread
+        private final ClockCache<Destination,MessageProducer> replyProducers = new ClockCache<>(REPLY_CACHE_SIZE);
+        private final TextMessage reply;  // reused, a send() is complete when it returns
+        private final List<Request> batch = new ArrayList<>(REPLY_BATCH_SIZE);
+        private final List<MessageProducer> evictedProducers = new ArrayList<>();  // closed once the batch is sent
+
+        private Worker(Session session) throws JMSException {
+            this.session = session;
+            reply = session.createTextMessage();
+        }
+
+        @Override
+        public void run() {
+            Backoff backoff = new Backoff();
+            while (true) {
+                Request request;
+                while (batch.size() < REPLY_BATCH_SIZE && (request = requestQueue.poll()) != null) {
+                    batch.add(request);
+                }
+                if (batch.isEmpty()) {
+                    if (isShutdown) {
+                        return;
+                    }
+                    backoff.idle();
+                    continue;
+                }
+                backoff.reset();
+                replyToBatch();
+                batch.clear();
+            }
+        }
+
+        private void replyToBatch() {
+            for (Request request : batch) {
+                try {
+                    Destination replyDestination = request.message.getJMSReplyTo();
+                    request.replyProducer = replyDestination == null ? null : getReplyProducer(replyDestination);
+                } catch (JMSException | RuntimeException e) {
+                    System.out.println("### Caught at getJMSReplyTo() " + e);
+                    request.replyProducer = null;
+                }
+                if (request.replyProducer == null) {
+                    noReplyToCounter.increment();
+                    complete(request, System.nanoTime());
+                }
+            }
+            // send the replies grouped by destination, in arrival order within each destination
+            for (int i = 0; i < batch.size(); i++) {
+                MessageProducer producer = batch.get(i).replyProducer;
+                if (producer == null) {
+                    continue;  // no reply-to, or already sent with an earlier group
+                }
+                for (int j = i; j < batch.size(); j++) {
+                    Request request = batch.get(j);
+                    if (request.replyProducer == producer) {
+                        reply(request);
+                        request.replyProducer = null;
+                    }
+                }
+            }
+            for (MessageProducer producer : evictedProducers) {
+                try {
+                    producer.close();
+                } catch (JMSException e) {
+                    System.out.println("### Caught at producer.close() " + e);
+                }
+            }
+            evictedProducers.clear();
+        }
+
+        private MessageProducer getReplyProducer(Destination replyDestination) throws JMSException {
+            MessageProducer producer = replyProducers.get(replyDestination);
+            if (producer == null) {  // first reply to this destination (or evicted since)
+                producer = session.createProducer(replyDestination);
+                producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+                producer.setDisableMessageID(true);          // don't auto-populate the JMSMessageID
+                producer.setDisableMessageTimestamp(true);   // don't set a send timestamp by default
+                MessageProducer evicted = replyProducers.put(replyDestination, producer);
+                if (evicted != null) {  // it may still be needed for this batch
+                    evictedProducers.add(evicted);
+                }
+            }
+            return producer;
+        }
+
+        private void reply(Request request) {
+            long startNanos = System.nanoTime();
+            try {
+                if (SERVICE_TIME_NANOS > 0) {  // pretend to do some work
+                    LockSupport.parkNanos(SERVICE_TIME_NANOS);
+                }
+                reply.clearBody();  // re-use the message
+                reply.clearProperties();
+                reply.setText("Sample response");
+                // Copy the correlation ID from the request to the reply
+                reply.setJMSCorrelationID(request.message.getJMSCorrelationID());
+                // For direct messaging only, this flag is needed to interoperate with
+                // Solace Java, C, and C# request reply APIs.
+                reply.setBooleanProperty(SupportedProperty.SOLACE_JMS_PROP_IS_REPLY_MESSAGE, Boolean.TRUE);
+                request.replyProducer.send(reply);
+                replyCounter.increment();
+            } catch (JMSException | RuntimeException e) {  // the worker carries on, and the rest of its batch completes
+                System.out.println("### Caught in reply() " + e);
+            } finally {
+                long endNanos = System.nanoTime();
+                serviceTimeStats.recordNanos(endNanos - startNanos);
+                complete(request, endNanos);
+            }
+        }
+
+        private void complete(Request request, long endNanos) {
+            totalTimeStats.recordNanos(endNanos - request.receivedNanos);
+            inFlightCounter.decrementAndGet();
+            inFlightSlots.release();
+        }
+    }
+}
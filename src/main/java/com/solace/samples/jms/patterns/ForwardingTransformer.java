@@ -0,0 +1,50 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.PayloadHeader;
+import java.util.List;
+import javax.jms.JMSException;
+
+/**
+ * A {@link MessageTransformer} that forwards binary payloads as they are, changing only what needs to change.
+ * <p>
+ * The inbound payload is copied once into the message's pooled buffer, and sent from there in a pooled outbound
+ * BytesMessage, so no per-message buffers or messages are created.  If the payload carries a {@link PayloadHeader}
+ * (as sent by {@link NonPersistentPublisher}), only its stream ID is rewritten, so {@link NonPersistentSubscriber}
+ * tracks the forwarded copies as their own streams, and measures latency and losses end-to-end through this
+ * processor.  Non-binary messages are forwarded with no payload.  Enable with
+ * {@code -Dtransformer=ForwardingTransformer}.
+ */
+public class ForwardingTransformer implements MessageTransformer {
+
+    private static final int FORWARDED_STREAM_ID_MASK = 0x5A5A5A5A;
+
+    @Override
+    public void transform(List<ProcessorMessage> batch) throws JMSException {
+        for (ProcessorMessage message : batch) {
+            int length = message.readInboundPayload();
+            byte[] payload = message.getPayload();
+            if (PayloadHeader.isPresent(payload, length)) {  // patch just the stream ID, in place
+                PayloadHeader.rewriteStreamId(payload, PayloadHeader.readStreamId(payload) ^ FORWARDED_STREAM_ID_MASK);
+            }
+        }
+    }
+}
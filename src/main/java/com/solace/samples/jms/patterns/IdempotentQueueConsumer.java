@@ -0,0 +1,173 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.DedupCache;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import com.solacesystems.jms.SupportedProperty;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * An idempotent Guaranteed (persistent) consumer: it remembers the keys of the messages it has processed, and
+ * acknowledges, without processing again, any message whose key it has already seen.  A queue delivers at least
+ * once, so after a consumer dies before acknowledging, or a publisher resends after a lost acknowledgement, the same
+ * message can arrive again.
+ * <p>
+ * The key is the JMSMessageID, or an application-set property (e.g. a business transaction ID, which survives a
+ * publisher resending as a new message).  Keys are remembered in a {@link DedupCache}, which holds 64-bit hashes in
+ * primitive arrays, so millions of keys cost no GC work, and 32 to 48 bytes each; it forgets keys after the dedup
+ * window, or the oldest once it holds {@code dedupMaxKeys}.  A key is only remembered once its message is processed,
+ * and a message whose processing failed isn't acknowledged, but the session is recovered, so it's redelivered and
+ * processed again.
+ * <p>
+ * Every second it prints the msgs/s, duplicates skipped, messages without a key, the cache's hits, misses,
+ * evictions (cache full) and expirations (window passed), and the keys held.  Optional settings, passed as JVM
+ * system properties:
+ * <ul>
+ *   <li>{@code dedupKey} - the String property holding the key (default: use the JMSMessageID)
+ *   <li>{@code dedupWindowMs} - how long keys are remembered (default 600000, i.e. 10 minutes)
+ *   <li>{@code dedupMaxKeys} - the most keys remembered, 32 to 48 bytes each (default 1000000)
+ *   <li>{@code queueName} - the queue to consume from, created if it doesn't exist (default Q/tutorial)
+ * </ul>
+ */
+public class IdempotentQueueConsumer {
+
+    private static final String SAMPLE_NAME = IdempotentQueueConsumer.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final String DEDUP_KEY = System.getProperty("dedupKey");  // null means the JMSMessageID
+    private static final long DEDUP_WINDOW_MS = Long.getLong("dedupWindowMs", 600_000);
+    private static final int DEDUP_MAX_KEYS = Integer.getInteger("dedupMaxKeys", 1_000_000);
+    private static final String QUEUE_NAME = System.getProperty("queueName", "Q/tutorial");
+
+    private static final DedupCache dedupCache = new DedupCache(DEDUP_MAX_KEYS, DEDUP_WINDOW_MS);  // only used by the dispatcher thread
+    private static final LongAdder msgRecvCounter = new LongAdder();
+    private static final LongAdder msgDuplicateCounter = new LongAdder();
+    private static final LongAdder msgNoKeyCounter = new LongAdder();
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DdedupKey=<property> -DdedupWindowMs=<ms> -DdedupMaxKeys=<num keys> -DqueueName=<queue>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(20);      // recommended settings
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue if it doesn't exist
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        // individual acknowledgements, so a message is only acknowledged once it's processed (or found a duplicate)
+        Session session = connection.createSession(false, SupportedProperty.SOL_CLIENT_ACKNOWLEDGE);
+        Queue queue = session.createQueue(QUEUE_NAME);
+        MessageConsumer consumer = session.createConsumer(queue);
+        consumer.setMessageListener(message -> onMessage(session, message));
+        connection.start();  // start receiving messages
+
+        System.out.printf("%s %s connected, and running, dedup on %s for %,d ms / %,d keys. Press [ENTER] to quit.%n",
+                API, SAMPLE_NAME, DEDUP_KEY == null ? "JMSMessageID" : "property '" + DEDUP_KEY + "'",
+                DEDUP_WINDOW_MS, DEDUP_MAX_KEYS);
+        long prevHits = 0, prevMisses = 0, prevEvictions = 0, prevExpirations = 0;
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                long hits = dedupCache.getHits();
+                long misses = dedupCache.getMisses();
+                long evictions = dedupCache.getEvictions();
+                long expirations = dedupCache.getExpirations();
+                System.out.printf("%s Received msgs/s: %,d, duplicates: %,d, no key: %,d, cache hits: %,d, misses: %,d, evicted: %,d, expired: %,d, keys: %,d%n",
+                        API, msgRecvCounter.sumThenReset(), msgDuplicateCounter.sumThenReset(), msgNoKeyCounter.sumThenReset(),
+                        hits - prevHits, misses - prevMisses, evictions - prevEvictions, expirations - prevExpirations,
+                        dedupCache.size());
+                prevHits = hits;
+                prevMisses = misses;
+                prevEvictions = evictions;
+                prevExpirations = expirations;
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        connection.stop();
+        consumer.close();
+        session.close();
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** on the API's dispatcher thread, the only one using the cache */
+    private static void onMessage(Session session, Message message) {
+        msgRecvCounter.increment();
+        try {
+            String key = DEDUP_KEY == null ? message.getJMSMessageID() : message.getStringProperty(DEDUP_KEY);
+            if (key == null) {  // can't tell, so it has to be processed
+                msgNoKeyCounter.increment();
+                process(message);
+            } else {
+                long keyHash = DedupCache.hash(key);
+                if (dedupCache.contains(keyHash, System.currentTimeMillis())) {
+                    msgDuplicateCounter.increment();  // already processed, just acknowledge it again
+                } else {
+                    process(message);
+                    dedupCache.add(keyHash, System.currentTimeMillis());  // only once it's been processed
+                }
+            }
+            message.acknowledge();  // SOL_CLIENT_ACKNOWLEDGE: just this message
+        } catch (JMSException e) {
+            System.out.println("### Caught in onMessage() " + e);
+        } catch (RuntimeException e) {
+            System.out.println("### Caught processing message " + e);
+            try {
+                // not acknowledged, but the session only redelivers unacknowledged messages once it's recovered
+                session.recover();
+            } catch (JMSException e2) {
+                System.out.println("### Caught in recover() " + e2);
+            }
+        }
+    }
+
+    private static void process(Message message) {
+        // process the message here, with side effects that mustn't be repeated
+    }
+}
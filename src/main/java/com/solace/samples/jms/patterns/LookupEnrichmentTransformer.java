@@ -0,0 +1,79 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+
+/**
+ * An example {@link MessageTransformer} that enriches each message from a local lookup cache, keyed by the last
+ * level of the inbound topic (e.g. {@code A} for {@code solace/samples/jms/direct/pub/A}).
+ * <p>
+ * The lookup table is loaded once, in {@link #init}, from the properties file named by {@code -DlookupFile}, or
+ * defaults to mapping each letter to its NATO phonetic alphabet word.  Each batch resolves its keys against the
+ * cache in one pass, which is where a real implementation would also fetch any misses in a single call to the
+ * backing store, rather than once per message.  Enable with {@code -Dtransformer=LookupEnrichmentTransformer}.
+ */
+public class LookupEnrichmentTransformer implements MessageTransformer {
+
+    private static final String[] NATO_ALPHABET = { "Alfa", "Bravo", "Charlie", "Delta", "Echo", "Foxtrot", "Golf",
+            "Hotel", "India", "Juliett", "Kilo", "Lima", "Mike", "November", "Oscar", "Papa", "Quebec", "Romeo",
+            "Sierra", "Tango", "Uniform", "Victor", "Whiskey", "X-ray", "Yankee", "Zulu" };
+
+    private final Map<String,String> lookupCache = new HashMap<>();
+
+    @Override
+    public void init(Properties config) throws IOException {
+        String lookupFile = config.getProperty("lookupFile");
+        if (lookupFile != null) {
+            Properties table = new Properties();
+            try (InputStream in = new FileInputStream(lookupFile)) {
+                table.load(in);
+            }
+            for (String key : table.stringPropertyNames()) {
+                lookupCache.put(key, table.getProperty(key));
+            }
+        } else {
+            for (int i = 0; i < NATO_ALPHABET.length; i++) {
+                lookupCache.put(String.valueOf((char)('A' + i)), NATO_ALPHABET[i]);
+            }
+        }
+    }
+
+    @Override
+    public void transform(List<ProcessorMessage> batch) throws Exception {
+        for (ProcessorMessage message : batch) {
+            String topic = message.getInboundTopic();
+            String value = lookupCache.get(topic.substring(topic.lastIndexOf('/') + 1));
+            if (value != null) {
+                message.setProperty("lookup", value);
+                message.setText(value);
+            } else {
+                message.setText(topic);
+            }
+            message.setMessageId(message.getInboundMessage().getJMSMessageID());  // populate for traceability
+        }
+    }
+}
@@ -0,0 +1,53 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import java.util.List;
+import java.util.Properties;
+
+/**
+ * The "processing" step of {@link NonPersistentProcessor}, as a pluggable service.
+ * <p>
+ * Implementations are found with {@link java.util.ServiceLoader}: list the class name in a
+ * {@code META-INF/services/com.solace.samples.jms.patterns.MessageTransformer} file on the classpath (e.g. in a jar
+ * in the {@code libs} directory), and select it with {@code -Dtransformer=<simple or fully qualified class name>}.
+ * Each transform thread gets its own instance, so implementations need not be thread-safe.
+ * <p>
+ * Messages are passed in batches of whatever was queued for the transform thread, so that expensive work, such as a
+ * lookup or a serializer call, can be done once per batch instead of once per message.
+ */
+public interface MessageTransformer {
+
+    /**
+     * Called once, on the transform thread, before the first batch.
+     * @param config the processor's configuration, i.e. the JVM system properties
+     * @throws Exception if the transformer can't be initialized; the batch is dropped, and the next batch retries
+     */
+    default void init(Properties config) throws Exception {
+    }
+
+    /**
+     * Transforms a batch of messages in place: set their outbound payload, topic or properties, or
+     * {@link ProcessorMessage#discard() discard} them.  Messages are in arrival order, per topic.
+     * @param batch one or more messages; the list is reused after this returns, so must not be kept
+     * @throws Exception if the batch can't be transformed, in which case none of it is published
+     */
+    void transform(List<ProcessorMessage> batch) throws Exception;
+}
@@ -19,14 +19,25 @@
 
 package com.solace.samples.jms.patterns;
 
+import com.solace.samples.jms.util.ClockCache;
+import com.solace.samples.jms.util.ObjectPool;
+import com.solace.samples.jms.util.ShardedDispatcher;
+import com.solace.samples.jms.util.ThreadAllocationMeter;
+import com.solace.samples.jms.util.TopicLevels;
+import com.solace.samples.jms.util.TopicMatcher;
 import com.solacesystems.jms.SolConnectionFactory;
 import com.solacesystems.jms.SolJmsUtility;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
-import javax.jms.MessageListener;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
 import javax.jms.TextMessage;
@@ -38,23 +49,86 @@ import javax.jms.Topic;
  * it has received an input message.
  * This class is meant to be used with DirectPub and DirectSub, intercepting the published messages and
  * sending them on to a different topic.
+ * <p>
+ * It is built as a pipeline, so that a slow transform or publish doesn't stall the inbound dispatch (and cause
+ * egress discards): the JMS dispatcher thread only matches the topic and queues the message; a pool of transform
+ * threads does the "processing"; and a pool of publisher threads, each with its own Session, sends the results.
+ * The stages are connected by bounded lock-free queues, sharded by topic so per-topic ordering is kept.
+ * <p>
+ * The processing itself is done by a {@link MessageTransformer}, loaded with {@link ServiceLoader}, which is given
+ * batches of messages so it can amortize expensive work.  {@link ProcessorMessage}s, and the outbound JMS messages,
+ * are pooled and reused, so e.g. {@link ForwardingTransformer} forwards binary payloads without allocating per
+ * message; the heap allocated per message across the pipeline is printed every second.  Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code transformer} - class name of the MessageTransformer to use (default UpperCaseTopicTransformer)
+ *   <li>{@code transformBatchSize} - max messages per call to the MessageTransformer (default 64)
+ *   <li>{@code transformThreads} - number of transform threads (default 2)
+ *   <li>{@code publisherThreads} - number of publisher threads, each with its own Session (default 1)
+ *   <li>{@code stageQueueSize} - max messages queued per thread, per stage (default 1024)
+ *   <li>{@code topicCacheSize} - max inbound topics, per transform thread, whose outbound Topic is cached (default 1024)
+ * </ul>
  */
 public class NonPersistentProcessor {
 
     private static final String SAMPLE_NAME = NonPersistentProcessor.class.getSimpleName();
     private static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
     private static final String API = "JMS";
-    
+    private static final String INBOUND_SUBSCRIPTION = TOPIC_PREFIX + "*/direct/pub/>";
+    private static final String OUTBOUND_TOPIC_PREFIX = TOPIC_PREFIX + API.toLowerCase() + "/direct/upper/";
+    private static final int INBOUND_TOPIC_SUFFIX_LEVEL = 5;  // "solace/samples/*/direct/pub/" is levels 0-4
+    // compiled once, instead of a regex compiled for every message
+    private static final TopicMatcher INBOUND_TOPIC_MATCHER = TopicMatcher.compile(INBOUND_SUBSCRIPTION);
+    private static final int NUM_TRANSFORM_THREADS = Math.max(1, Integer.getInteger("transformThreads", 2));
+    private static final int NUM_PUBLISHER_THREADS = Math.max(1, Integer.getInteger("publisherThreads", 1));
+    private static final int STAGE_QUEUE_SIZE = Integer.getInteger("stageQueueSize", 1024);
+    private static final String TRANSFORMER_NAME = System.getProperty("transformer", UpperCaseTopicTransformer.class.getSimpleName());
+    private static final int TRANSFORM_BATCH_SIZE = Integer.getInteger("transformBatchSize", 64);
+    private static final int TOPIC_CACHE_SIZE = Math.max(1, Integer.getInteger("topicCacheSize", 1024));
+
+    // reused for building each outbound topic, one per transform thread
+    private static final ThreadLocal<StringBuilder> OUTBOUND_TOPIC_BUILDER =
+            ThreadLocal.withInitial(() -> new StringBuilder(OUTBOUND_TOPIC_PREFIX));
+    // inbound topic -> outbound Topic, one cache per transform thread (a topic is always transformed by the same thread)
+    private static final List<ClockCache<String,Topic>> topicCaches = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<ClockCache<String,Topic>> TOPIC_CACHE = ThreadLocal.withInitial(() -> {
+        ClockCache<String,Topic> cache = new ClockCache<>(TOPIC_CACHE_SIZE);
+        topicCaches.add(cache);
+        return cache;
+    });
+    private static Session topicSession;  // only used to create Topic objects, which can be shared across Sessions
+    // each transform thread's own MessageTransformer instance, created on first use
+    private static final ThreadLocal<MessageTransformer> TRANSFORMER = new ThreadLocal<>();
+    private static ServiceLoader.Provider<MessageTransformer> transformerProvider;
+    // each publisher thread's own Session and producer, created on first use
+    private static final ThreadLocal<Publisher> PUBLISHER = new ThreadLocal<>();
+
+    private static ShardedDispatcher<ProcessorMessage> transformStage;
+    private static ShardedDispatcher<ProcessorMessage> publishStage;
+    // recycled ProcessorMessages, enough for every stage queue to be full
+    private static final ObjectPool<ProcessorMessage> messagePool =
+            new ObjectPool<>((NUM_TRANSFORM_THREADS + NUM_PUBLISHER_THREADS) * STAGE_QUEUE_SIZE, ProcessorMessage::new);
+    private static volatile long dispatcherThreadId = -1;  // the JMS dispatcher thread, for allocation stats
+    private static final LongAdder msgRecvCounter = new LongAdder();
+    private static final LongAdder msgSentCounter = new LongAdder();
     private static volatile boolean isShutdown = false;  // are we done yet?
 
     /** Main method. */
     public static void main(String... args) throws Exception {
         if (args.length < 3) {  // Check command line arguments
-            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n%n", SAMPLE_NAME);
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DtransformThreads=<num> -DpublisherThreads=<num> -DstageQueueSize=<num msgs>%n");
+            System.out.printf("            -Dtransformer=<class name> -DtransformBatchSize=<num msgs> -DtopicCacheSize=<num topics>%n%n");
             System.exit(-1);
         }
         System.out.println(API + " " + SAMPLE_NAME + " initializing...");
 
+        // find the MessageTransformer to use, it's instantiated later, once per transform thread
+        transformerProvider = ServiceLoader.load(MessageTransformer.class).stream()
+                .filter(provider -> provider.type().getName().equals(TRANSFORMER_NAME)
+                        || provider.type().getSimpleName().equals(TRANSFORMER_NAME))
+                .findFirst()
+                .orElseThrow(() -> new IllegalArgumentException("No MessageTransformer found named " + TRANSFORMER_NAME));
+
         // Programmatically create the connection factory using default settings
         SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
         connectionFactory.setHost(args[0]);          // host:port
@@ -79,43 +153,33 @@ public class NonPersistentProcessor {
             }
         });
 
+        // the consuming Session is only used by the JMS dispatcher thread, each publisher thread gets its own Session
         Session session = connection.createSession(false,Session.CLIENT_ACKNOWLEDGE);  // ACK mode doesn't matter for Direct only
+        topicSession = connection.createSession(false,Session.CLIENT_ACKNOWLEDGE);
 
-        MessageProducer producer = session.createProducer(null);  // do not bind the producer to a specific topic
-        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);    // use non-persistent (Direct here) as default
-        producer.setDisableMessageID(true);                       // don't auto-populate the JMSMessageID
-        producer.setDisableMessageTimestamp(true);                // don't set a send timestamp by default
+        // the pipeline stages, each sharded by topic so that messages on the same topic stay in order
+        publishStage = new ShardedDispatcher<>(SAMPLE_NAME+"-publish",NUM_PUBLISHER_THREADS,STAGE_QUEUE_SIZE,
+                outboundMsg -> publish(connection,outboundMsg));
+        transformStage = new ShardedDispatcher<>(SAMPLE_NAME+"-transform",NUM_TRANSFORM_THREADS,STAGE_QUEUE_SIZE,
+                TRANSFORM_BATCH_SIZE,NonPersistentProcessor::transform);
 
-        
         // Create the subscription topic programmatically, & the message consumer for the subscription topic
-        MessageConsumer consumer = session.createConsumer(session.createTopic(TOPIC_PREFIX + "*/direct/pub/>"));
-        consumer.setMessageListener(new MessageListener() {
-            @Override
-            public void onMessage(Message inboundMsg) {
-                try {
-                    // do not print anything to console... too slow!
-                    String inboundTopic = inboundMsg.getJMSDestination().toString();
-                    // looking for topic "solace/samples/*/direct/pub/>"
-                    if (inboundTopic.matches(TOPIC_PREFIX + ".+?/direct/pub/.*")) {  // use of regex to match variable API level
-                        // how to "process" the incoming message? maybe do a DB lookup? add some additional properties? or change the payload?
-                        TextMessage outboundMsg = session.createTextMessage();
-                        final String upperCaseMessage = inboundTopic.toUpperCase();  // as a silly example of "processing"
-                        outboundMsg.setText(upperCaseMessage);
-                        if (inboundMsg.getJMSMessageID() != null) {
-                            outboundMsg.setJMSMessageID(inboundMsg.getJMSMessageID());  // populate for traceability
-                        }
-                        String [] inboundTopicLevels = inboundTopic.split("/",6);
-                        String outboundTopic = new StringBuilder(TOPIC_PREFIX).append(API.toLowerCase())
-                                .append("/direct/upper/").append(inboundTopicLevels[5]).toString();
-                        try {
-                            producer.send(session.createTopic(outboundTopic),outboundMsg);
-                        } catch (JMSException e) {
-                            System.out.println("### Caught at producer.send() " + e);
-                        }
-                    }
-                } catch (JMSException e) {
-                    System.out.println("### Caught in onMessage() " + e);
+        MessageConsumer consumer = session.createConsumer(session.createTopic(INBOUND_SUBSCRIPTION));
+        consumer.setMessageListener(inboundMsg -> {  // lambda, MessageListener.onMessage(message)
+            try {
+                // do not print anything to console... too slow!
+                String inboundTopic = ((Topic)inboundMsg.getJMSDestination()).getTopicName();
+                // looking for topic "solace/samples/*/direct/pub/>"
+                if (INBOUND_TOPIC_MATCHER.matches(inboundTopic)) {  // Solace wildcard match on variable API level
+                    msgRecvCounter.increment();
+                    dispatcherThreadId = Thread.currentThread().getId();
+                    // hand off to the transform stage, this blocks if it can't keep up (backpressure)
+                    transformStage.dispatch(inboundTopic.hashCode(),messagePool.acquire().reset(inboundTopic,inboundMsg));
                 }
+            } catch (JMSException e) {
+                System.out.println("### Caught in onMessage() " + e);
+            } catch (InterruptedException e) {
+                isShutdown = true;
             }
         });
         
@@ -134,16 +198,167 @@ public class NonPersistentProcessor {
         connection.start();  // start receiving messages
 
         System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
+        long prevAllocatedBytes = -1;
         while (System.in.available() == 0 && !isShutdown) {  // time to loop!
             try {
                 Thread.sleep(1000);  // take a pause
+                long msgsRecv = msgRecvCounter.sumThenReset();
+                long allocatedBytes = getPipelineAllocatedBytes();
+                String allocation = "";
+                if (prevAllocatedBytes >= 0 && allocatedBytes >= 0 && msgsRecv > 0) {
+                    allocation = String.format(", allocated bytes/msg: %,d",(allocatedBytes - prevAllocatedBytes) / msgsRecv);
+                }
+                prevAllocatedBytes = allocatedBytes;
+                System.out.printf("%s Received msgs/s: %,d, Published msgs/s: %,d%s%n",API,
+                        msgsRecv,msgSentCounter.sumThenReset(),allocation);
+                System.out.printf("    transform stage: %s%n    publish stage:   %s%n",
+                        stageReport(transformStage),stageReport(publishStage));
+                printTopicCacheReport();
             } catch (InterruptedException e) {
                 // Thread.sleep() interrupted... probably getting shut down
             }
         }
         isShutdown = true;
         connection.stop();
+        transformStage.close();  // waits for the stages to finish what's queued, before the connection goes
+        publishStage.close();
         connection.close();
         System.out.println("Main thread quitting.");
     }
+
+    /** the transform stage: "processes" a batch of inbound messages into outbound ones, on a transform thread */
+    private static void transform(List<ProcessorMessage> batch) {
+        try {
+            MessageTransformer transformer = TRANSFORMER.get();
+            if (transformer == null) {  // first batch on this transform thread
+                transformer = transformerProvider.get();
+                transformer.init(System.getProperties());
+                TRANSFORMER.set(transformer);
+            }
+            ClockCache<String,Topic> topicCache = TOPIC_CACHE.get();
+            for (ProcessorMessage message : batch) {
+                Topic outboundTopic = topicCache.get(message.getInboundTopic());
+                if (outboundTopic == null) {  // only build the outbound topic on a cache miss
+                    outboundTopic = createOutboundTopic(message.getInboundTopic());
+                    topicCache.put(message.getInboundTopic(),outboundTopic);
+                }
+                message.setOutboundTopic(outboundTopic);  // the transformer may still change it
+            }
+            // how to "process" the incoming message? maybe do a DB lookup? add some additional properties? or change the payload?
+            transformer.transform(batch);
+            for (ProcessorMessage message : batch) {
+                if (message.isDiscarded()) {
+                    messagePool.release(message);
+                } else {
+                    // same shard key as the transform stage, so per-topic ordering is kept
+                    publishStage.dispatch(message.getInboundTopic().hashCode(),message);
+                }
+            }
+        } catch (InterruptedException e) {
+            isShutdown = true;
+        } catch (Exception e) {  // from the MessageTransformer, the batch is dropped
+            System.out.println("### Caught in transform() " + e);
+            for (ProcessorMessage message : batch) {
+                messagePool.release(message);
+            }
+        }
+    }
+
+    /** "solace/samples/jms/direct/pub/A" becomes "solace/samples/jms/direct/upper/A" */
+    private static Topic createOutboundTopic(String inboundTopic) throws JMSException {
+        StringBuilder outboundTopicBuilder = OUTBOUND_TOPIC_BUILDER.get();
+        outboundTopicBuilder.setLength(OUTBOUND_TOPIC_PREFIX.length());
+        TopicLevels.appendFromLevel(outboundTopicBuilder,inboundTopic,INBOUND_TOPIC_SUFFIX_LEVEL);
+        synchronized (topicSession) {  // a Session is single-threaded, and cache misses are rare
+            return topicSession.createTopic(outboundTopicBuilder.toString());
+        }
+    }
+
+    /** the publish stage: sends an outbound message, on a publisher thread with its own Session */
+    private static void publish(Connection connection, ProcessorMessage outbound) {
+        try {
+            Publisher publisher = PUBLISHER.get();
+            if (publisher == null) {  // first message on this publisher thread
+                publisher = new Publisher(connection.createSession(false,Session.CLIENT_ACKNOWLEDGE));
+                PUBLISHER.set(publisher);
+            }
+            Message message;
+            if (outbound.getText() == null && outbound.getPayloadLength() >= 0) {  // binary, send from the pooled buffer
+                publisher.bytesMessage.clearBody();  // re-use the message
+                publisher.bytesMessage.clearProperties();
+                publisher.bytesMessage.writeBytes(outbound.getPayload(),0,outbound.getPayloadLength());
+                message = publisher.bytesMessage;
+            } else {
+                publisher.textMessage.clearBody();  // re-use the message
+                publisher.textMessage.clearProperties();
+                publisher.textMessage.setText(outbound.getText());
+                message = publisher.textMessage;
+            }
+            // clearBody() and clearProperties() leave the headers, so always set the one a transformer can set, even
+            // to null, or a message without one would go out with the previous message's
+            message.setJMSMessageID(outbound.getMessageId());
+            for (Map.Entry<String,String> property : outbound.getProperties().entrySet()) {
+                message.setStringProperty(property.getKey(),property.getValue());
+            }
+            Topic outboundTopic = outbound.getOutboundTopic() != null ? outbound.getOutboundTopic()
+                    : publisher.session.createTopic(outbound.getOutboundTopicName());  // set by the transformer
+            publisher.producer.send(outboundTopic,message);
+            msgSentCounter.increment();
+        } catch (JMSException e) {
+            System.out.println("### Caught at producer.send() " + e);
+        } finally {
+            messagePool.release(outbound);  // sent (or not), ready for the next inbound message
+        }
+    }
+
+    /** @return total bytes allocated so far by the dispatcher and pipeline threads, or -1 if unknown */
+    private static long getPipelineAllocatedBytes() {
+        long total = ThreadAllocationMeter.getAllocatedBytes(dispatcherThreadId);
+        for (ShardedDispatcher<?> stage : new ShardedDispatcher<?>[] { transformStage, publishStage }) {
+            for (int i = 0; i < stage.getNumWorkers() && total >= 0; i++) {
+                long allocatedBytes = ThreadAllocationMeter.getAllocatedBytes(stage.getWorkerThreadId(i));
+                total = allocatedBytes < 0 ? -1 : total + allocatedBytes;
+            }
+        }
+        return total;
+    }
+
+    private static String stageReport(ShardedDispatcher<?> stage) {
+        StringBuilder depths = new StringBuilder("queue depths");
+        for (int i = 0; i < stage.getNumWorkers(); i++) {
+            depths.append(' ').append(stage.getQueueDepth(i));
+        }
+        return depths.append(String.format(", upstream waited %,d times for %,d ms",
+                stage.getAndResetBackpressureCount(),stage.getAndResetBackpressureMillis())).toString();
+    }
+
+    private static void printTopicCacheReport() {
+        long hits = 0, misses = 0, evictions = 0, size = 0;
+        for (ClockCache<String,Topic> cache : topicCaches) {
+            hits += cache.getHits();
+            misses += cache.getMisses();
+            evictions += cache.getEvictions();
+            size += cache.size();
+        }
+        System.out.printf("    topic cache: %,d entries, total hits %,d, misses %,d, evictions %,d%n",
+                size,hits,misses,evictions);
+    }
+
+    /** a publisher thread's own Session, producer and reusable message */
+    private static class Publisher {
+        private final Session session;
+        private final MessageProducer producer;
+        private final TextMessage textMessage;
+        private final BytesMessage bytesMessage;
+
+        private Publisher(Session session) throws JMSException {
+            this.session = session;
+            producer = session.createProducer(null);  // do not bind the producer to a specific topic
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);    // use non-persistent (Direct here) as default
+            producer.setDisableMessageID(true);                       // don't auto-populate the JMSMessageID
+            producer.setDisableMessageTimestamp(true);                // don't set a send timestamp by default
+            textMessage = session.createTextMessage();
+            bytesMessage = session.createBytesMessage();
+        }
+    }
 }
@@ -19,37 +19,74 @@
 
 package com.solace.samples.jms.patterns;
 
+import com.solace.samples.jms.util.EpochNanoClock;
+import com.solace.samples.jms.util.MessageIdGenerator;
+import com.solace.samples.jms.util.PayloadHeader;
+import com.solace.samples.jms.util.RatePacer;
+import com.solace.samples.jms.util.ThreadAllocationMeter;
 import com.solacesystems.jms.SolConnectionFactory;
 import com.solacesystems.jms.SolJmsUtility;
+import java.util.ArrayList;
 import java.util.Arrays;
-import java.util.UUID;
+import java.util.List;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
 import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.DeliveryMode;
 import javax.jms.JMSException;
 import javax.jms.MessageProducer;
 import javax.jms.Session;
+import javax.jms.Topic;
 
 /**
  * A more performant sample that shows an application that publishes.
+ * <p>
+ * It can also be used as a simple load generator.  Optional settings, passed as JVM system properties
+ * (e.g. {@code JAVA_OPTS="-Drate=100000 -DpayloadSize=256"}):
+ * <ul>
+ *   <li>{@code rate} - target publish rate in msgs/s, 0 for as fast as possible (default 100)
+ *   <li>{@code payloadSize} - payload size in bytes (default 100)
+ *   <li>{@code topicFanout} - number of distinct topics to rotate through (default 26, i.e. A-Z)
+ *   <li>{@code threads} - number of publisher threads, each with its own Session and producer (default 1)
+ *   <li>{@code connectionPerThread} - give each publisher thread its own Connection too (default false)
+ *   <li>{@code topicCacheSize} - max number of Topic objects each publisher thread keeps for reuse (default 1024)
+ *   <li>{@code setMessageId} - stamp a JMSMessageID header on each message, whose String is then the one allocation
+ *       left per message (default false)
+ * </ul>
+ * Messages are paced against a fixed schedule, so a stalled send is caught up on rather than silently lowering the rate.
+ * The target rate is split evenly across the publisher threads.
+ * <p>
+ * The publish loop is written to avoid allocating in steady state (reused message, payload, Topic objects and topic
+ * string builder), and the bytes allocated per published message are reported, if the JVM supports measuring it.
+ * <p>
+ * Each payload starts with a {@link PayloadHeader} carrying its intended send time and a per-topic sequence number,
+ * which {@link NonPersistentSubscriber} uses to measure one-way latency and count lost messages.
  */
 public class NonPersistentPublisher {
     
     private static final String SAMPLE_NAME = NonPersistentPublisher.class.getSimpleName();
     private static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
     private static final String API = "JMS";
-    private static final int APPROX_MSG_RATE_PER_SEC = 100;
-    private static final int PAYLOAD_SIZE = 100;
+    private static final int MSG_RATE_PER_SEC = Integer.getInteger("rate", 100);
+    private static final int PAYLOAD_SIZE = Integer.getInteger("payloadSize", 100);
+    private static final int TOPIC_FANOUT = Math.max(1, Integer.getInteger("topicFanout", 26));
+    private static final int NUM_PUBLISHER_THREADS = Math.max(1, Integer.getInteger("threads", 1));
+    private static final boolean CONNECTION_PER_THREAD = Boolean.getBoolean("connectionPerThread");
+    private static final int TOPIC_CACHE_SIZE = Math.max(0, Integer.getInteger("topicCacheSize", 1024));
+    private static final boolean SET_MESSAGE_ID = Boolean.parseBoolean(System.getProperty("setMessageId", "false"));
     
-    private static volatile int msgSentCounter = 0;                   // num messages sent
     private static volatile boolean isShutdown = false;
 
     /** Main method. */
     public static void main(String... args) throws Exception {
         if (args.length < 3) {  // Check command line arguments
-            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n%n", SAMPLE_NAME);
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -Drate=<msgs/s, 0=max> -DpayloadSize=<bytes> -DtopicFanout=<num topics>%n");
+            System.out.printf("            -Dthreads=<num publisher threads> -DconnectionPerThread=<true|false>%n");
+            System.out.printf("            -DtopicCacheSize=<num topics> -DsetMessageId=<true|false>%n%n");
             System.exit(-1);
         }
         System.out.println(API.toUpperCase()+ " " + SAMPLE_NAME + " initializing...");
@@ -67,42 +104,174 @@ public class NonPersistentPublisher {
         // https://docs.solace.com/Solace-PubSub-Messaging-APIs/API-Developer-Guide/Configuring-Connection-T.htm
         connectionFactory.setDirectTransport(false);    // use Guaranteed transport for "non-persistent" messages
         connectionFactory.setXmlPayload(false);         // use the normal payload section for TextMessage
-        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
-        Connection connection = connectionFactory.createConnection();
 
+        // a JMS Session is single-threaded, so each publisher thread gets its own Session (and optionally Connection)
+        List<Connection> connections = new ArrayList<>();
+        PublisherThread[] publishers = new PublisherThread[NUM_PUBLISHER_THREADS];
+        for (int i = 0; i < NUM_PUBLISHER_THREADS; i++) {
+            if (connections.isEmpty() || CONNECTION_PER_THREAD) {
+                String clientId = API+"_"+SAMPLE_NAME + (connections.isEmpty() ? "" : "_"+i);  // must be unique
+                connectionFactory.setClientID(clientId);  // change the name, easier to find
+                connections.add(createConnection(connectionFactory));
+            }
+            Session session = connections.get(connections.size()-1)
+                    .createSession(false,Session.CLIENT_ACKNOWLEDGE);  // ACK mode doesn't matter for Direct only
+            publishers[i] = new PublisherThread(i, session, (double)MSG_RATE_PER_SEC / NUM_PUBLISHER_THREADS);
+        }
+
+        ExecutorService publishExecutor = Executors.newFixedThreadPool(NUM_PUBLISHER_THREADS);
+        for (PublisherThread publisher : publishers) {
+            publishExecutor.submit(publisher);  // create an application thread for publishing in a loop
+        }
+
+        System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
+        // block the main thread, waiting for a quit signal
+        long[] lastSentCount = new long[NUM_PUBLISHER_THREADS];
+        long[] lastAllocatedBytes = new long[NUM_PUBLISHER_THREADS];
+        long lastReportTime = System.nanoTime();
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                long now = System.nanoTime();
+                double elapsedSec = (now - lastReportTime) / 1e9;  // normalize, sleep() is never exactly 1s
+                lastReportTime = now;
+                double[] threadRates = new double[NUM_PUBLISHER_THREADS];
+                double achievedRate = 0;
+                long maxLagNanos = 0;
+                long totalSent = 0;
+                long totalAllocatedBytes = 0;
+                for (int i = 0; i < NUM_PUBLISHER_THREADS; i++) {
+                    long sent = publishers[i].msgSentCounter;
+                    threadRates[i] = (sent - lastSentCount[i]) / elapsedSec;
+                    long allocatedBytes = ThreadAllocationMeter.getAllocatedBytes(publishers[i].threadId);
+                    if (allocatedBytes > 0 && lastAllocatedBytes[i] > 0) {  // skip the first (warm-up) interval
+                        totalAllocatedBytes += allocatedBytes - lastAllocatedBytes[i];
+                        totalSent += sent - lastSentCount[i];
+                    }
+                    lastAllocatedBytes[i] = allocatedBytes;
+                    lastSentCount[i] = sent;
+                    achievedRate += threadRates[i];
+                    maxLagNanos = Math.max(maxLagNanos, publishers[i].pacer.getAndResetMaxLagNanos());
+                }
+                if (MSG_RATE_PER_SEC > 0) {
+                    System.out.printf("%s Published msgs/s: %,.0f (target %,d, %.1f%%), max schedule lag: %,d us%n",
+                            API,achievedRate,MSG_RATE_PER_SEC,100 * achievedRate / MSG_RATE_PER_SEC,maxLagNanos / 1000);
+                } else {
+                    System.out.printf("%s Published msgs/s: %,.0f%n",API,achievedRate);
+                }
+                if (ThreadAllocationMeter.isSupported() && totalSent > 0) {
+                    // includes any allocation inside the JMS API's send(), which this sample can't control
+                    System.out.printf("    publisher thread allocation: %,.1f bytes/msg%s%n",
+                            (double)totalAllocatedBytes / totalSent, SET_MESSAGE_ID ? " (incl. the JMSMessageID String)" : "");
+                }
+                if (NUM_PUBLISHER_THREADS > 1) {
+                    StringBuilder perThread = new StringBuilder("    per thread msgs/s:");
+                    for (double threadRate : threadRates) {
+                        perThread.append(String.format(" %,.0f",threadRate));
+                    }
+                    System.out.println(perThread);
+                }
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        publishExecutor.shutdown();
+        publishExecutor.awaitTermination(1, TimeUnit.SECONDS);  // let the publishers finish their last send
+        for (Connection connection : connections) {
+            connection.stop();
+        }
+        Thread.sleep(500);
+        for (Connection connection : connections) {
+            connection.close();
+        }
+        System.out.println("Main thread quitting.");
+    }
+
+    private static Connection createConnection(SolConnectionFactory connectionFactory) throws JMSException {
+        Connection connection = connectionFactory.createConnection();
         connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
             System.out.println("### Connection ExceptionListener caught this: "+jmsException);
             if (jmsException.getMessage().contains("JCSMPTransportException")) {
                 isShutdown = true;  // bail out
             }
         });
-        
-        Session session = connection.createSession(false,Session.CLIENT_ACKNOWLEDGE);  // ACK mode doesn't matter for Direct only
+        return connection;
+    }
+
+    /** One publishing loop, which owns its Session, producer, message and payload buffer. */
+    private static class PublisherThread implements Runnable {
 
-        MessageProducer producer = session.createProducer(null);  // do not bind the producer to a specific topic
-        producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);    // use non-persistent (Direct here) as default
-        producer.setDisableMessageID(true);                       // don't auto-populate the JMSMessageID
-        producer.setDisableMessageTimestamp(true);                // don't set a send timestamp by default
+        private final int id;
+        private final Session session;
+        private final MessageProducer producer;
+        private final BytesMessage message;
+        private final byte[] payload = new byte[PAYLOAD_SIZE];  // preallocate memory, for reuse, for performance
+        private final RatePacer pacer;
+        private final Topic[] topicCache = new Topic[Math.min(TOPIC_FANOUT, TOPIC_CACHE_SIZE)];  // indexed by topic level
+        private final StringBuilder topicBuilder = new StringBuilder(64);  // reused for topics not in the cache
+        private final MessageIdGenerator messageIdGenerator;
+        private final int streamId = ThreadLocalRandom.current().nextInt();  // identifies this publisher's sequences
+        private final long[] topicSequences = new long[TOPIC_FANOUT];       // last sequence number sent, per topic
+        private volatile long msgSentCounter = 0;  // num messages sent, only written by this publisher's thread
+        private volatile long threadId = -1;      // for measuring the allocations of the publishing thread
 
-        // preallocate a binary message, reuse it each loop, for performance
-        final BytesMessage message = session.createBytesMessage();
-        ExecutorService publishExecutor = Executors.newSingleThreadExecutor();
-        publishExecutor.submit(() -> {  // create an application thread for publishing in a loop
-            byte[] payload = new byte[PAYLOAD_SIZE];  // preallocate memory, for reuse, for performance
+        private PublisherThread(int id, Session session, double msgRatePerSec) throws JMSException {
+            this.id = id;
+            this.session = session;
+            producer = session.createProducer(null);  // do not bind the producer to a specific topic
+            producer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);    // use non-persistent (Direct here) as default
+            producer.setDisableMessageID(true);                       // don't auto-populate the JMSMessageID
+            producer.setDisableMessageTimestamp(true);                // don't set a send timestamp by default
+            // preallocate a binary message, reuse it each loop, for performance
+            message = session.createBytesMessage();
+            pacer = new RatePacer(msgRatePerSec);
+            messageIdGenerator = new MessageIdGenerator(
+                    API+"_"+SAMPLE_NAME+"_"+Long.toString(System.currentTimeMillis(),36)+"_"+id+"_");
+        }
+
+        /** dynamic topics!!  "solace/samples/jms/direct/pub/A", or ".../pub/A1" etc. for larger fan-outs */
+        private Topic getTopic(int topicIndex) throws JMSException {
+            Topic topic = topicIndex < topicCache.length ? topicCache[topicIndex] : null;
+            if (topic == null) {  // build the topic string in the reusable builder, only done once per cached topic
+                topicBuilder.setLength(0);
+                topicBuilder.append(TOPIC_PREFIX).append(API.toLowerCase()).append("/direct/pub/")
+                        .append((char)((topicIndex % 26) + 65));
+                if (topicIndex >= 26) {
+                    topicBuilder.append(topicIndex / 26);
+                }
+                topic = session.createTopic(topicBuilder.toString());
+                if (topicIndex < topicCache.length) {
+                    topicCache[topicIndex] = topic;
+                }
+            }
+            return topic;
+        }
+
+        @Override
+        public void run() {
+            threadId = Thread.currentThread().getId();
+            long msgNum = id;  // stagger the threads across the topics
+            pacer.start();
             while (!isShutdown) {
                 try {
+                    long intendedSendTime = pacer.acquire();  // wait for the next scheduled send time
                     // each loop, change the payload, less trivial
-                    char chosenCharacter = (char)(Math.round(msgSentCounter % 26) + 65);  // rotate through letters [A-Z]
+                    int topicIndex = (int)(msgNum++ % TOPIC_FANOUT);
+                    char chosenCharacter = (char)((topicIndex % 26) + 65);  // rotate through letters [A-Z]
                     Arrays.fill(payload,(byte)chosenCharacter);  // fill the payload completely with that char
+                    if (payload.length >= PayloadHeader.LENGTH) {  // stamp send time & sequence, for latency & loss
+                        // use the scheduled time, not the actual time, so a stalled publisher shows up as latency
+                        PayloadHeader.write(payload,EpochNanoClock.fromNanoTime(intendedSendTime),
+                                streamId,topicIndex,++topicSequences[topicIndex]);
+                    }
                     message.writeBytes(payload);
-                    message.setJMSMessageID(UUID.randomUUID().toString());  // as an example of a header
-                    // dynamic topics!!  "solace/samples/jms/direct/pub/A"
-                    String topicString = new StringBuilder(TOPIC_PREFIX)
-                            .append(API.toLowerCase()).append("/direct/pub/").append(chosenCharacter).toString();
-                    producer.send(session.createTopic(topicString),message);  // send the message
+                    if (SET_MESSAGE_ID) {
+                        message.setJMSMessageID(messageIdGenerator.next());  // as an example of a header
+                    }
+                    producer.send(getTopic(topicIndex),message);  // send the message
                     msgSentCounter++;  // add one
                     message.clearBody();  // re-use the message
-                    Thread.sleep(1000 / APPROX_MSG_RATE_PER_SEC);  // do Thread.sleep(0) for max speed
                     // Note: STANDARD Edition Solace PubSub+ broker is limited to 10k msg/s max ingress
                 } catch (JMSException e) {  // threw from send(), only thing that is throwing here, but keep trying (unless shutdown?)
                     System.out.printf("### Caught while trying to producer.send(): %s%n",e);
@@ -113,29 +282,13 @@ public class NonPersistentPublisher {
                     isShutdown = true;
                 }
             }
-            try {  // try to send a QUIT message to the other applications... (as an example of command-and-control)
-                message.clearBody();
-                producer.send(session.createTopic(TOPIC_PREFIX+"control/quit"),message);
-            } catch (JMSException e) {
-            }
-            publishExecutor.shutdown();
-        });
-
-        System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
-        // block the main thread, waiting for a quit signal
-        while (System.in.available() == 0 && !isShutdown) {
-            try {
-                Thread.sleep(1000);
-                System.out.printf("%s Published msgs/s: %,d%n",API,msgSentCounter);  // simple way of calculating message rates
-                msgSentCounter = 0;
-            } catch (InterruptedException e) {
-                // Thread.sleep() interrupted... probably getting shut down
+            if (id == 0) {
+                try {  // try to send a QUIT message to the other applications... (as an example of command-and-control)
+                    message.clearBody();
+                    producer.send(session.createTopic(TOPIC_PREFIX+"control/quit"),message);
+                } catch (JMSException e) {
+                }
             }
         }
-        isShutdown = true;
-        connection.stop();
-        Thread.sleep(500);
-        connection.close();
-        System.out.println("Main thread quitting.");
     }
 }
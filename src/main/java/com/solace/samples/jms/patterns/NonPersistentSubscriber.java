@@ -19,24 +19,66 @@
 
 package com.solace.samples.jms.patterns;
 
+import com.solace.samples.jms.util.EpochNanoClock;
+import com.solace.samples.jms.util.LatencyStats;
+import com.solace.samples.jms.util.PayloadHeader;
+import com.solace.samples.jms.util.SequenceTracker;
+import com.solace.samples.jms.util.ShardedDispatcher;
+import com.solace.samples.jms.util.TopicLevels;
 import com.solacesystems.jms.SolConnectionFactory;
 import com.solacesystems.jms.SolJmsUtility;
 import com.solacesystems.jms.message.SolMessage;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.BytesMessage;
 import javax.jms.Connection;
 import javax.jms.JMSException;
 import javax.jms.Message;
 import javax.jms.MessageConsumer;
 import javax.jms.MessageListener;
 import javax.jms.Session;
+import javax.jms.Topic;
 
-/** This is a more detailed subscriber sample. */
+/**
+ * This is a more detailed subscriber sample.
+ * <p>
+ * If the messages carry a {@link PayloadHeader} (as sent by {@link NonPersistentPublisher}), the one-way latency of
+ * each message is recorded into an HdrHistogram, and its percentiles are printed every second.  The header's
+ * per-topic sequence numbers are tracked too, to report how many messages were expected, received, lost and
+ * duplicated each second, and on which topics the losses were.  Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code hlogFile} - also write each interval's latency histogram to this {@code .hlog} file (default none)
+ *   <li>{@code workerThreads} - process messages on this many worker threads instead of the JMS dispatcher thread
+ *       (default 0)
+ *   <li>{@code shardLevel} - 0-based topic level whose value picks the worker, so per-value ordering is kept
+ *       (default 5, the last level of {@code solace/samples/jms/direct/pub/A})
+ *   <li>{@code workerQueueSize} - max messages queued per worker before the dispatcher thread waits (default 1024)
+ * </ul>
+ */
 public class NonPersistentSubscriber {
 
     private static final String SAMPLE_NAME = NonPersistentSubscriber.class.getSimpleName();
     private static final String TOPIC_PREFIX = "solace/samples/";  // used as the topic "root"
     private static final String API = "JMS";
+    private static final String HLOG_FILE = System.getProperty("hlogFile");
+    private static final int NUM_WORKER_THREADS = Math.max(0, Integer.getInteger("workerThreads", 0));
+    private static final int SHARD_TOPIC_LEVEL = Integer.getInteger("shardLevel", 5);
+    private static final int WORKER_QUEUE_SIZE = Integer.getInteger("workerQueueSize", 1024);
+    // reused buffer for reading the payload header, one per processing thread
+    private static final ThreadLocal<byte[]> HEADER_BUFFER = ThreadLocal.withInitial(() -> new byte[PayloadHeader.LENGTH]);
+    // sequence tracking, one tracker per processing thread (a topic is always processed by the same thread)
+    private static final List<SequenceTracker> sequenceTrackers = new CopyOnWriteArrayList<>();
+    private static final ThreadLocal<SequenceTracker> SEQUENCE_TRACKER = ThreadLocal.withInitial(() -> {
+        SequenceTracker tracker = new SequenceTracker();
+        sequenceTrackers.add(tracker);
+        return tracker;
+    });
     
-    private static volatile int msgRecvCounter = 0;              // num messages received
+    private static final LongAdder msgRecvCounter = new LongAdder();  // num messages received, by any thread
+    private static LatencyStats latencyStats;
     private static volatile boolean hasDetectedDiscard = false;  // detected any discards yet?
     private static volatile boolean isShutdown = false;          // are we done yet?
 
@@ -44,7 +86,9 @@ public class NonPersistentSubscriber {
      * @throws Exception */
     public static void main(String... args) throws Exception {
         if (args.length < 3) {  // Check command line arguments
-            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n%n", SAMPLE_NAME);
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DhlogFile=<latency histogram log file>%n");
+            System.out.printf("            -DworkerThreads=<num> -DshardLevel=<topic level> -DworkerQueueSize=<num msgs>%n%n");
             System.exit(-1);
         }
         System.out.println(API + " " + SAMPLE_NAME + " initializing...");
@@ -73,22 +117,31 @@ public class NonPersistentSubscriber {
         
         Session session = connection.createSession(false,Session.CLIENT_ACKNOWLEDGE);  // ACK mode doesn't matter for Direct only
 
+        latencyStats = new LatencyStats(HLOG_FILE);
+        // optionally hand the messages off to worker threads, sharded by a topic level to keep per-topic ordering
+        final ShardedDispatcher<Message> dispatcher = NUM_WORKER_THREADS > 0
+                ? new ShardedDispatcher<>(SAMPLE_NAME+"-worker",NUM_WORKER_THREADS,WORKER_QUEUE_SIZE,
+                        NonPersistentSubscriber::processMessage)
+                : null;
+
         // Create the subscription topic programmatically, & the message consumer for the subscription topic
         MessageConsumer consumer = session.createConsumer(session.createTopic(TOPIC_PREFIX + "*/direct/>"));
         consumer.setMessageListener(new MessageListener() {
             @Override
             public void onMessage(Message message) {
                 // do not print anything to console... too slow!
-                msgRecvCounter++;
-                if (((SolMessage)message).getMessage().getDiscardIndication()) {
-                    // since Direct messages, check if there have been any lost any messages
-                    // If the consumer is being over-driven (i.e. publish rates too high), the broker might discard some messages for this consumer
-                    // check this flag to know if that's happened
-                    // to avoid discards:
-                    //  a) reduce publish rate
-                    //  b) use multiple-threads or shared subscriptions for parallel processing
-                    //  c) increase size of consumer's D-1 egress buffers (check client-profile) (helps more with bursts)
-                    hasDetectedDiscard = true;  // set my own flag
+                if (dispatcher == null) {
+                    processMessage(message);  // do the work on this JMS dispatcher thread
+                    return;
+                }
+                try {
+                    String topic = ((Topic)message.getJMSDestination()).getTopicName();
+                    // blocks this JMS dispatcher thread if that worker's queue is full (backpressure)
+                    dispatcher.dispatch(TopicLevels.hashLevel(topic,SHARD_TOPIC_LEVEL),message);
+                } catch (JMSException e) {
+                    System.out.println("### Caught in onMessage() " + e);
+                } catch (InterruptedException e) {
+                    isShutdown = true;
                 }
             }
         });
@@ -111,13 +164,22 @@ public class NonPersistentSubscriber {
         try {
             while (System.in.available() == 0 && !isShutdown) {
                 Thread.sleep(1000);  // wait 1 second
-                System.out.printf("%s Received msgs/s: %,d%n",API,msgRecvCounter);  // simple way of calculating message rates
-                msgRecvCounter = 0;
+                System.out.printf("%s Received msgs/s: %,d%n",API,msgRecvCounter.sumThenReset());  // simple way of calculating message rates
+                System.out.printf("%s Latency: %s%n",API,latencyStats.intervalSummary());
+                printSequenceReport();
                 if (hasDetectedDiscard) {
                     System.out.println("*** Egress discard detected *** : "
                             + SAMPLE_NAME + " unable to keep up with full message rate");
                     hasDetectedDiscard = false;  // only show the error once per second
                 }
+                if (dispatcher != null) {
+                    StringBuilder depths = new StringBuilder();
+                    for (int i = 0; i < dispatcher.getNumWorkers(); i++) {
+                        depths.append(' ').append(dispatcher.getQueueDepth(i));
+                    }
+                    System.out.printf("    worker queue depths:%s, dispatcher waited %,d times for %,d ms%n",
+                            depths,dispatcher.getAndResetBackpressureCount(),dispatcher.getAndResetBackpressureMillis());
+                }
             }
         } catch (InterruptedException e) {
             // Thread.sleep() interrupted... probably getting shut down
@@ -126,8 +188,70 @@ public class NonPersistentSubscriber {
         isShutdown = true;
         connection.stop();
         System.out.println("********** after connection stop");
+        if (dispatcher != null) {
+            dispatcher.close();  // waits for the workers to finish what's queued, before the connection goes
+        }
 //        session.close();
         connection.close();  // could block here for a while.
+        latencyStats.close();
         System.out.println("Main thread quitting.");
     }
+
+    /** prints the expected/received/lost/duplicate counts since the last call, and the topics with the most losses */
+    private static void printSequenceReport() {
+        long[] totals = new long[4];
+        Map<String,Long> lostByTopic = new TreeMap<>();
+        for (SequenceTracker tracker : sequenceTrackers) {
+            long[] trackerTotals = tracker.takeIntervalTotals();
+            for (int i = 0; i < totals.length; i++) {
+                totals[i] += trackerTotals[i];
+            }
+            tracker.takeIntervalLosses(lostByTopic);
+        }
+        if (totals[SequenceTracker.RECEIVED] == 0) {
+            return;  // no sequence-numbered messages
+        }
+        System.out.printf("%s Sequenced msgs expected: %,d, received: %,d, lost: %,d, duplicates: %,d%n",API,
+                totals[SequenceTracker.EXPECTED],totals[SequenceTracker.RECEIVED],
+                totals[SequenceTracker.LOST],totals[SequenceTracker.DUPLICATES]);
+        if (!lostByTopic.isEmpty()) {
+            StringBuilder worst = new StringBuilder("    most lost:");
+            lostByTopic.entrySet().stream()
+                    .sorted(Map.Entry.<String,Long>comparingByValue().reversed())
+                    .limit(5)
+                    .forEach(entry -> worst.append(String.format(" %s=%,d",entry.getKey(),entry.getValue())));
+            System.out.println(worst);
+        }
+    }
+
+    /** the per-message "work" of this subscriber, done on the JMS dispatcher thread or on a worker thread */
+    private static void processMessage(Message message) {
+        msgRecvCounter.increment();
+        if (message instanceof BytesMessage) {
+            try {
+                byte[] headerBuffer = HEADER_BUFFER.get();
+                int length = ((BytesMessage)message).readBytes(headerBuffer);
+                if (PayloadHeader.isPresent(headerBuffer,length)) {
+                    latencyStats.recordNanos(EpochNanoClock.now() - PayloadHeader.readSendTime(headerBuffer));
+                    SequenceTracker tracker = SEQUENCE_TRACKER.get();
+                    long streamKey = PayloadHeader.readStreamKey(headerBuffer);
+                    if (tracker.record(streamKey,PayloadHeader.readSequence(headerBuffer))) {  // new stream?
+                        tracker.nameStream(streamKey,((Topic)message.getJMSDestination()).getTopicName());
+                    }
+                }
+            } catch (JMSException e) {
+                System.out.println("### Caught while reading the payload header " + e);
+            }
+        }
+        if (((SolMessage)message).getMessage().getDiscardIndication()) {
+            // since Direct messages, check if there have been any lost any messages
+            // If the consumer is being over-driven (i.e. publish rates too high), the broker might discard some messages for this consumer
+            // check this flag to know if that's happened
+            // to avoid discards:
+            //  a) reduce publish rate
+            //  b) use multiple-threads (see -DworkerThreads) or shared subscriptions for parallel processing
+            //  c) increase size of consumer's D-1 egress buffers (check client-profile) (helps more with bursts)
+            hasDetectedDiscard = true;  // set my own flag
+        }
+    }
 }
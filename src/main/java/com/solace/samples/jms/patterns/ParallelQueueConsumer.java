@@ -0,0 +1,237 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.Backoff;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Session;
+
+/**
+ * A Guaranteed (persistent) consumer that drains queues on several threads.  QueueConsumer has one consumer on one
+ * Session, so everything it receives is processed on one thread; this opens N flows (a Session and consumer each)
+ * on the same queue, or spread across several queues, and has a pool of worker threads consume them.
+ * <p>
+ * For several flows on one queue to share its messages, the queue must be non-exclusive (or partitioned): the
+ * queues created by this sample (via dynamic durables) are exclusive by default, so only one flow would be active.
+ * Either provision the queue(s) as non-exclusive, or list several queues with {@code queueNames}.
+ * <p>
+ * A Session may be used by one thread at a time, not necessarily the same one, so flows aren't pinned to workers:
+ * idle flows wait in a shared queue, a worker claims one, drains up to {@code flowBatch} messages from it without
+ * blocking, acknowledges them all at once, and puts it back.  A busy flow is therefore kept busy by whichever
+ * workers are free, while a flow that goes idle costs only a non-blocking check each round, instead of tying up a
+ * thread.  Workers back off when every flow is idle.
+ * <p>
+ * Every second it prints the total and per-flow msgs/s, the per-worker msgs/s and the number of idle flows.
+ * Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code flows} - number of flows, i.e. Sessions each with a consumer (default 4)
+ *   <li>{@code workerThreads} - number of worker threads (default the lesser of flows and CPUs)
+ *   <li>{@code queueNames} - comma-separated queues to consume from, flows are spread across them (default Q/tutorial)
+ *   <li>{@code connections} - number of connections to spread the flows across, each has its own I/O thread (default 1)
+ *   <li>{@code flowBatch} - max messages a worker takes from a flow before moving on to the next (default 256)
+ * </ul>
+ */
+public class ParallelQueueConsumer {
+
+    private static final String SAMPLE_NAME = ParallelQueueConsumer.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final int NUM_FLOWS = Math.max(1, Integer.getInteger("flows", 4));
+    private static final int NUM_WORKER_THREADS = Math.max(1, Integer.getInteger("workerThreads",
+            Math.min(NUM_FLOWS, Runtime.getRuntime().availableProcessors())));
+    private static final String[] QUEUE_NAMES = System.getProperty("queueNames", "Q/tutorial").split(",");
+    private static final int NUM_CONNECTIONS = Math.max(1, Math.min(NUM_FLOWS, Integer.getInteger("connections", 1)));
+    private static final int FLOW_BATCH = Math.max(1, Integer.getInteger("flowBatch", 256));
+
+    private static final Queue<Flow> availableFlows = new ConcurrentLinkedQueue<>();  // flows no worker holds
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -Dflows=<num> -DworkerThreads=<num> -DqueueNames=<queue,queue,...>%n");
+            System.out.printf("            -Dconnections=<num> -DflowBatch=<num msgs>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(20);      // recommended settings
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue(s) if they don't exist
+
+        List<Connection> connections = new ArrayList<>();
+        for (int i = 0; i < NUM_CONNECTIONS; i++) {
+            connectionFactory.setClientID(API+"_"+SAMPLE_NAME+"_"+i);  // must be unique
+            Connection connection = connectionFactory.createConnection();
+            connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+                System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+                if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                    isShutdown = true;  // bail out
+                }
+            });
+            connections.add(connection);
+        }
+        List<Flow> flows = new ArrayList<>();
+        for (int i = 0; i < NUM_FLOWS; i++) {
+            // a Session per flow, with one acknowledge() covering all the messages it received so far
+            Session session = connections.get(i % NUM_CONNECTIONS).createSession(false, Session.CLIENT_ACKNOWLEDGE);
+            String queueName = QUEUE_NAMES[i % QUEUE_NAMES.length].trim();
+            Flow flow = new Flow(queueName, session, session.createConsumer(session.createQueue(queueName)));
+            flows.add(flow);
+            availableFlows.add(flow);
+        }
+        for (Connection connection : connections) {
+            connection.start();  // start receiving messages
+        }
+
+        List<Worker> workers = new ArrayList<>();
+        List<Thread> workerThreads = new ArrayList<>();
+        for (int i = 0; i < NUM_WORKER_THREADS; i++) {
+            Worker worker = new Worker();
+            workers.add(worker);
+            Thread thread = new Thread(worker, SAMPLE_NAME + "-worker-" + i);
+            thread.setDaemon(true);
+            workerThreads.add(thread);
+            thread.start();
+        }
+
+        System.out.printf("%s %s connected, and running %d flows on %d workers. Press [ENTER] to quit.%n",
+                API, SAMPLE_NAME, NUM_FLOWS, NUM_WORKER_THREADS);
+        long[] lastFlowCounts = new long[NUM_FLOWS];
+        long[] lastWorkerCounts = new long[NUM_WORKER_THREADS];
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                long total = 0;
+                int idleFlows = 0;
+                StringBuilder perFlow = new StringBuilder("    per flow msgs/s:");
+                for (int i = 0; i < NUM_FLOWS; i++) {
+                    long count = flows.get(i).msgRecvCount;
+                    long rate = count - lastFlowCounts[i];
+                    lastFlowCounts[i] = count;
+                    total += rate;
+                    if (rate == 0) {
+                        idleFlows++;
+                    }
+                    perFlow.append(String.format(" %,d", rate));
+                }
+                StringBuilder perWorker = new StringBuilder("    per worker msgs/s:");
+                for (int i = 0; i < NUM_WORKER_THREADS; i++) {
+                    long count = workers.get(i).msgRecvCount;
+                    perWorker.append(String.format(" %,d", count - lastWorkerCounts[i]));
+                    lastWorkerCounts[i] = count;
+                }
+                System.out.printf("%s Received msgs/s: %,d, idle flows: %d of %d%n%s%n%s%n",
+                        API, total, idleFlows, NUM_FLOWS, perFlow, perWorker);
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        for (Thread thread : workerThreads) {
+            thread.join(1000);  // each acknowledges what it received before giving up its flow
+        }
+        for (Connection connection : connections) {
+            connection.stop();
+            connection.close();
+        }
+        System.out.println("Main thread quitting.");
+    }
+
+    /** a Session and its consumer, used by whichever worker holds it */
+    private static class Flow {
+        private final String queueName;
+        private final Session session;
+        private final MessageConsumer consumer;
+        private volatile long msgRecvCount = 0;  // only written by the worker holding the flow
+
+        private Flow(String queueName, Session session, MessageConsumer consumer) {
+            this.queueName = queueName;
+            this.session = session;
+            this.consumer = consumer;
+        }
+    }
+
+    /** a worker thread, which takes turns on whichever flows are free */
+    private static class Worker implements Runnable {
+        private volatile long msgRecvCount = 0;  // only written by this worker's thread
+
+        @Override
+        public void run() {
+            Backoff backoff = new Backoff();
+            int idleInARow = 0;  // consecutive flows found empty
+            while (!isShutdown) {
+                Flow flow = availableFlows.poll();
+                if (flow == null) {  // more workers than flows with messages, the rest are held by other workers
+                    backoff.idle();
+                    continue;
+                }
+                int received = 0;
+                try {
+                    received = drain(flow);
+                } catch (JMSException e) {
+                    System.out.println("### Caught on flow of " + flow.queueName + ": " + e);
+                }
+                availableFlows.add(flow);  // back of the line, for any worker
+                if (received > 0) {
+                    idleInARow = 0;
+                    backoff.reset();
+                } else if (++idleInARow >= NUM_FLOWS) {  // went round every flow for nothing, slow down
+                    backoff.idle();
+                }
+            }
+        }
+
+        /** @return the number of messages received from the flow, all acknowledged */
+        private int drain(Flow flow) throws JMSException {
+            Message lastMessage = null;
+            int received = 0;
+            Message message;
+            while (received < FLOW_BATCH && (message = flow.consumer.receiveNoWait()) != null) {
+                // process the message here, it stays on the queue until it's acknowledged
+                lastMessage = message;
+                received++;
+            }
+            if (lastMessage != null) {
+                lastMessage.acknowledge();  // with CLIENT_ACKNOWLEDGE, one call covers the whole batch
+                flow.msgRecvCount += received;
+                msgRecvCount += received;
+            }
+            return received;
+        }
+    }
+}
@@ -0,0 +1,200 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.JmsSessionPool;
+import com.solace.samples.jms.util.LatencyStats;
+import com.solace.samples.jms.util.RatePacer;
+import java.util.ArrayList;
+import java.util.Hashtable;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.naming.Context;
+import javax.naming.InitialContext;
+
+/**
+ * A service-style producer: many threads each send one persistent message per "request", to a queue and through a
+ * ConnectionFactory both looked up from JNDI, like QueueProducerJNDI.  QueueProducerJNDI creates a Connection and
+ * Session per run; doing that per request costs several round trips to the broker each time.  This borrows a
+ * session from a {@link JmsSessionPool} instead, and sends with its cached producer.  Run it with
+ * {@code -Dpooled=false} to compare with a new Connection, Session and producer per request.
+ * <p>
+ * Every second it prints the requests/s and their latency (borrowing included) percentiles, and for the pool: how
+ * many borrows had to wait and for how long, timeouts, peak sessions in use against the maximum, and the sessions
+ * and Connections created.  The ConnectionFactory and queue must exist in JNDI (see ExtJndiImport).  Optional
+ * settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code cfJndiName} - the ConnectionFactory's JNDI name (default /JNDI/CF/GettingStarted)
+ *   <li>{@code queueJndiName} - the queue's JNDI name (default /JNDI/Q/tutorial)
+ *   <li>{@code threads} - the number of sending threads (default 16)
+ *   <li>{@code rate} - target requests/s per thread, 0 for as fast as possible (default 0)
+ *   <li>{@code pooled} - borrow from the pool, or connect per request (default true)
+ *   <li>{@code maxConnections} - the most pooled Connections (default 2)
+ *   <li>{@code maxSessions} - the most pooled Sessions, fewer than threads means some wait (default 8)
+ *   <li>{@code borrowTimeoutMs} - how long a thread waits for a pooled session (default 1000)
+ * </ul>
+ */
+public class PooledQueueProducerJNDI {
+
+    private static final String SAMPLE_NAME = PooledQueueProducerJNDI.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final String CONNECTION_FACTORY_JNDI_NAME = System.getProperty("cfJndiName", "/JNDI/CF/GettingStarted");
+    private static final String QUEUE_JNDI_NAME = System.getProperty("queueJndiName", "/JNDI/Q/tutorial");
+    private static final int THREADS = Math.max(1, Integer.getInteger("threads", 16));
+    private static final int MSG_RATE_PER_SEC = Math.max(0, Integer.getInteger("rate", 0));
+    private static final boolean POOLED = Boolean.parseBoolean(System.getProperty("pooled", "true"));
+    private static final int MAX_CONNECTIONS = Math.max(1, Integer.getInteger("maxConnections", 2));
+    private static final int MAX_SESSIONS = Math.max(1, Integer.getInteger("maxSessions", 8));
+    private static final long BORROW_TIMEOUT_MS = Math.max(0, Long.getLong("borrowTimeoutMs", 1000));
+    private static final int PRODUCER_CACHE_SIZE = 16;
+
+    private static final LongAdder msgSentCounter = new LongAdder();
+    private static final LongAdder errorCounter = new LongAdder();
+    private static LatencyStats requestLatencyStats;
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DcfJndiName=<name> -DqueueJndiName=<name> -Dthreads=<num> -Drate=<msgs/s per thread, 0=max>%n");
+            System.out.printf("            -Dpooled=<true|false> -DmaxConnections=<num> -DmaxSessions=<num> -DborrowTimeoutMs=<ms>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // setup environment variables for creating of the initial context
+        Hashtable<String, Object> env = new Hashtable<>();
+        // use the Solace JNDI initial context factory
+        env.put(InitialContext.INITIAL_CONTEXT_FACTORY, "com.solacesystems.jndi.SolJNDIInitialContextFactory");
+        env.put(InitialContext.PROVIDER_URL, args[0]);                 // host:port
+        env.put(Context.SECURITY_PRINCIPAL, args[2] + '@' + args[1]);  // client-username@message-vpn
+        if (args.length > 3) {
+            env.put(Context.SECURITY_CREDENTIALS, args[3]);            // client-password
+        }
+        InitialContext initialContext = new InitialContext(env);
+        ConnectionFactory connectionFactory = (ConnectionFactory)initialContext.lookup(CONNECTION_FACTORY_JNDI_NAME);
+        Queue queue = (Queue)initialContext.lookup(QUEUE_JNDI_NAME);  // looked up once, so every send shares a producer
+        initialContext.close();
+
+        requestLatencyStats = new LatencyStats(null);
+        JmsSessionPool pool = new JmsSessionPool(connectionFactory, MAX_CONNECTIONS, MAX_SESSIONS, PRODUCER_CACHE_SIZE);
+        List<Thread> threads = new ArrayList<>();
+        for (int i = 0; i < THREADS; i++) {
+            Thread thread = new Thread(() -> sendLoop(POOLED ? pool : null, connectionFactory, queue),
+                    SAMPLE_NAME + "-sender-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            threads.add(thread);
+        }
+
+        System.out.printf("%s %s running %d threads, %s. Press [ENTER] to quit.%n", API, SAMPLE_NAME, THREADS,
+                POOLED ? "pooling " + MAX_SESSIONS + " sessions over " + MAX_CONNECTIONS + " connections"
+                        : "connecting per request");
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                System.out.printf("%s Sent msgs/s: %,d, errors: %,d, request latency: %s%n", API,
+                        msgSentCounter.sumThenReset(), errorCounter.sumThenReset(), requestLatencyStats.intervalSummary());
+                if (POOLED) {
+                    long waited = pool.getAndResetWaitedCount();
+                    long waitNanos = pool.getAndResetBorrowWaitNanos();
+                    System.out.printf("    pool borrows/s: %,d, waited: %,d, avg wait: %,d us, max wait: %,d us, timeouts: %,d, peak in use: %d/%d, created sessions: %,d, connections: %,d%n",
+                            pool.getAndResetBorrowCount(), waited, waited == 0 ? 0 : TimeUnit.NANOSECONDS.toMicros(waitNanos / waited),
+                            TimeUnit.NANOSECONDS.toMicros(pool.getAndResetMaxBorrowWaitNanos()), pool.getAndResetTimeoutCount(),
+                            pool.getAndResetPeakInUse(), pool.getMaxSessions(), pool.getAndResetSessionsCreated(),
+                            pool.getAndResetConnectionsCreated());
+                }
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        for (Thread thread : threads) {
+            thread.join(1000);
+        }
+        pool.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** on each sending thread */
+    private static void sendLoop(JmsSessionPool pool, ConnectionFactory connectionFactory, Queue queue) {
+        RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
+        pacer.start();
+        try {
+            while (!isShutdown) {
+                long intendedSendTime = pacer.acquire();
+                try {
+                    if (pool != null) {
+                        sendPooled(pool, queue);
+                    } else {
+                        sendUnpooled(connectionFactory, queue);
+                    }
+                    msgSentCounter.increment();
+                } catch (JMSException e) {  // e.g. a timeout borrowing, keep going
+                    if (errorCounter.sum() == 0) {  // at most once per report interval, don't flood the console
+                        System.out.println("### Caught while sending " + e);
+                    }
+                    errorCounter.increment();
+                }
+                requestLatencyStats.recordNanos(System.nanoTime() - intendedSendTime);
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+
+    private static void sendPooled(JmsSessionPool pool, Queue queue) throws JMSException, InterruptedException {
+        try (JmsSessionPool.PooledSession session = pool.borrow(BORROW_TIMEOUT_MS, TimeUnit.MILLISECONDS)) {
+            try {
+                TextMessage message = session.getSession().createTextMessage("Hello world Queues!");
+                // NOTE: JMS Message Priority is not supported by the Solace Message Bus
+                session.getProducer(queue).send(queue, message, DeliveryMode.PERSISTENT, Message.DEFAULT_PRIORITY,
+                        Message.DEFAULT_TIME_TO_LIVE);
+            } catch (JMSException e) {
+                session.invalidate();  // don't give a possibly broken session to the next thread
+                throw e;
+            }
+        }
+    }
+
+    /** the way QueueProducerJNDI does it, for comparison */
+    private static void sendUnpooled(ConnectionFactory connectionFactory, Queue queue) throws JMSException {
+        Connection connection = connectionFactory.createConnection();
+        try {
+            Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            MessageProducer producer = session.createProducer(queue);
+            TextMessage message = session.createTextMessage("Hello world Queues!");
+            producer.send(queue, message, DeliveryMode.PERSISTENT, Message.DEFAULT_PRIORITY, Message.DEFAULT_TIME_TO_LIVE);
+        } finally {
+            connection.close();  // closes the session and producer too
+        }
+    }
+}
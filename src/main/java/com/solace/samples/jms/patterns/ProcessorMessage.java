@@ -0,0 +1,179 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import javax.jms.BytesMessage;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.Topic;
+
+/**
+ * A message passing through {@link NonPersistentProcessor}: the inbound message, and the content of the outbound
+ * message that a {@link MessageTransformer} builds from it.  JMS messages belong to the Session that created them,
+ * so the outbound message is only created from this content by a publisher thread.
+ * <p>
+ * The outbound content is either a String ({@link #setText}), sent as a TextMessage, or a binary payload, sent as a
+ * BytesMessage.  The binary payload lives in a buffer owned by this object, and these objects are pooled and
+ * reused by the processor, so forwarding a binary payload (see {@link #readInboundPayload()}) allocates nothing.
+ */
+public class ProcessorMessage {
+
+    private String inboundTopic;
+    private Message inboundMessage;
+    private Topic outboundTopic;
+    private String outboundTopicName;
+    private String text;
+    private String messageId;
+    private Map<String,String> properties = null;  // created on first use, then reused
+    private boolean discarded;
+    private byte[] payload = new byte[256];  // grows as needed, then reused
+    private int payloadLength;               // -1 if there is no binary payload
+
+    ProcessorMessage() {
+        reset(null, null);
+    }
+
+    /** Clears this message for reuse. */
+    ProcessorMessage reset(String inboundTopic, Message inboundMessage) {
+        this.inboundTopic = inboundTopic;
+        this.inboundMessage = inboundMessage;
+        outboundTopic = null;
+        outboundTopicName = null;
+        text = null;
+        messageId = null;
+        if (properties != null) {
+            properties.clear();
+        }
+        discarded = false;
+        payloadLength = -1;
+        return this;
+    }
+
+    /** @return the topic the message arrived on */
+    public String getInboundTopic() {
+        return inboundTopic;
+    }
+
+    /** @return the message as received; read it, but don't modify it */
+    public Message getInboundMessage() {
+        return inboundMessage;
+    }
+
+    /**
+     * Copies the payload of an inbound BytesMessage into this message's reusable buffer, as the outbound binary
+     * payload.  Modify it in place with {@link #getPayload()}, to change only the bytes that need changing.
+     * @return the payload length, or -1 if the inbound message is not a BytesMessage
+     * @throws JMSException if the payload can't be read
+     */
+    public int readInboundPayload() throws JMSException {
+        if (!(inboundMessage instanceof BytesMessage)) {
+            return -1;
+        }
+        BytesMessage bytesMessage = (BytesMessage)inboundMessage;
+        int length = (int)bytesMessage.getBodyLength();
+        if (length > payload.length) {
+            payload = new byte[Math.max(length, payload.length * 2)];
+        }
+        bytesMessage.reset();  // in case something else read it already
+        payloadLength = Math.max(0, bytesMessage.readBytes(payload, length));
+        return payloadLength;
+    }
+
+    /** @return the buffer holding the outbound binary payload, valid up to {@link #getPayloadLength()} */
+    public byte[] getPayload() {
+        return payload;
+    }
+
+    /** @return the length of the outbound binary payload, or -1 if there is none */
+    public int getPayloadLength() {
+        return payloadLength;
+    }
+
+    /** @return the topic to publish to, by default derived from the inbound topic; null if set by name */
+    public Topic getOutboundTopic() {
+        return outboundTopic;
+    }
+
+    void setOutboundTopic(Topic outboundTopic) {
+        this.outboundTopic = outboundTopic;
+        this.outboundTopicName = null;
+    }
+
+    /**
+     * @return the name of the topic to publish to
+     * @throws JMSException if the name can't be read from the Topic
+     */
+    public String getOutboundTopicName() throws JMSException {
+        return outboundTopicName != null ? outboundTopicName : outboundTopic.getTopicName();
+    }
+
+    /**
+     * Publishes to a different topic than the default.  Unlike the default topics, which are cached, the publisher
+     * thread creates a new Topic object for every message that sets this.
+     */
+    public void setOutboundTopicName(String outboundTopicName) {
+        this.outboundTopicName = outboundTopicName;
+        this.outboundTopic = null;
+    }
+
+    /** @return the outbound TextMessage payload, or null */
+    public String getText() {
+        return text;
+    }
+
+    /** Sets the outbound payload as text, which takes precedence over any binary payload. */
+    public void setText(String text) {
+        this.text = text;
+    }
+
+    /** @return the outbound JMSMessageID, or null */
+    public String getMessageId() {
+        return messageId;
+    }
+
+    public void setMessageId(String messageId) {
+        this.messageId = messageId;
+    }
+
+    /** Adds a String property to the outbound message. */
+    public void setProperty(String name, String value) {
+        if (properties == null) {
+            properties = new LinkedHashMap<>();
+        }
+        properties.put(name, value);
+    }
+
+    /** @return the outbound message's String properties */
+    public Map<String,String> getProperties() {
+        return properties == null ? Collections.emptyMap() : properties;
+    }
+
+    /** Drops this message: nothing will be published for it. */
+    public void discard() {
+        discarded = true;
+    }
+
+    public boolean isDiscarded() {
+        return discarded;
+    }
+}
@@ -0,0 +1,564 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.RatePacer;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import com.solacesystems.jms.SupportedProperty;
+import java.io.IOException;
+import java.nio.BufferOverflowException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.List;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+
+/**
+ * A tool to drain a queue to a local file, and to replay such a file back to a queue, e.g. to move millions of
+ * messages out of the way during an incident and put them back later.
+ * <p>
+ * The file is append-only and compact: a 12 byte file header, then one length-prefixed binary record per message,
+ * holding its body, delivery mode, priority, expiration, JMSType, JMSReplyTo (a queue or topic name),
+ * JMSCorrelationID and properties (of the primitive and String types).  Text and bytes messages
+ * are supported; on any other type, draining stops without acknowledging it, so it stays on the queue.  Both
+ * directions stream through one reused buffer and NIO {@link FileChannel} reads and writes, so memory use stays
+ * constant however many messages there are.
+ * <p>
+ * Draining consumes with {@code SOL_CLIENT_ACKNOWLEDGE}, and only acknowledges a message once its record has been
+ * forced to disk, every {@code syncEvery} messages, so a crash can duplicate messages in the file but not lose them.
+ * It stops once the queue has been empty for {@code idleTimeoutMs}, with every message so far acknowledged.  A
+ * {@code syncEvery} above the queue's max unacknowledged messages per flow makes the broker stop delivering until
+ * the drain acknowledges, which it does when a receive times out, so keep it below that: above it, each batch costs
+ * an idle timeout.  Replaying sends the messages, with their delivery mode, priority and remaining time to live, in
+ * transactions of {@code syncEvery} messages, at {@code rate} msgs/s.  A record cut short at the end of the file (if
+ * the drain was killed mid-write) is reported, and stops a replay, or is truncated before a drain appends to the
+ * file.  A replay also stops at a record whose length is corrupt.
+ * <p>
+ * After each replay transaction commits, the offset in the file it has got to is saved in {@code <file>.offset}, and
+ * a rerun (after a replay was stopped, killed or failed) resumes from there, so it doesn't send the committed
+ * messages again.  Only a crash between a commit and saving its offset duplicates messages, those of that one
+ * transaction.  Delete the offset file to replay the whole file again.
+ * <p>
+ * Every second it prints the msgs/s and MB/s.  Settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code mode} - {@code drain} (queue to file) or {@code replay} (file to queue) (default drain)
+ *   <li>{@code file} - the file to write or read (default queue-dump.bin); draining appends to an existing file,
+ *       and replaying resumes from {@code <file>.offset} if it exists
+ *   <li>{@code queueName} - the queue to drain or replay to, created if it doesn't exist (default Q/tutorial)
+ *   <li>{@code syncEvery} - messages per disk sync and acknowledgement, or per replay transaction, best kept below
+ *       the queue's max unacknowledged messages per flow (default 1000)
+ *   <li>{@code idleTimeoutMs} - drain: how long the queue must be empty to be considered drained (default 5000)
+ *   <li>{@code rate} - replay: msgs/s, 0 for as fast as possible (default 0)
+ * </ul>
+ */
+public class QueueDrainReplay {
+
+    private static final String SAMPLE_NAME = QueueDrainReplay.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final String MODE = System.getProperty("mode", "drain");
+    private static final Path FILE = Paths.get(System.getProperty("file", "queue-dump.bin"));
+    private static final String QUEUE_NAME = System.getProperty("queueName", "Q/tutorial");
+    private static final int SYNC_EVERY = Math.max(1, Integer.getInteger("syncEvery", 1000));
+    private static final long IDLE_TIMEOUT_MS = Math.max(1, Long.getLong("idleTimeoutMs", 5000));
+    private static final int MSG_RATE_PER_SEC = Math.max(0, Integer.getInteger("rate", 0));
+    private static final Path OFFSET_FILE = FILE.resolveSibling(FILE.getFileName() + ".offset");  // replay progress
+
+    private static final long FILE_MAGIC = 0x534F4C5144554D50L;  // "SOLQDUMP"
+    private static final int FILE_VERSION = 2;
+    private static final int FILE_HEADER_LENGTH = 12;
+    private static final byte BODY_BYTES = 0, BODY_TEXT = 1;
+    private static final byte DEST_NONE = 0, DEST_QUEUE = 1, DEST_TOPIC = 2;
+    private static final byte PROP_STRING = 0, PROP_BOOLEAN = 1, PROP_BYTE = 2, PROP_SHORT = 3, PROP_INT = 4,
+            PROP_LONG = 5, PROP_FLOAT = 6, PROP_DOUBLE = 7;
+
+    private static final LongAdder msgCounter = new LongAdder();
+    private static final LongAdder byteCounter = new LongAdder();
+    private static volatile long msgTotal = 0;  // only written by the drain or replay thread
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3 || !(MODE.equals("drain") || MODE.equals("replay"))) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -Dmode=<drain|replay> -Dfile=<path> -DqueueName=<queue> -DsyncEvery=<num msgs>%n");
+            System.out.printf("            -DidleTimeoutMs=<ms> -Drate=<msgs/s, 0=max>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(20);      // recommended settings
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue if it doesn't exist
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        boolean drain = MODE.equals("drain");
+        Thread worker = new Thread(() -> {
+            try {
+                if (drain) {
+                    drain(connection);
+                } else {
+                    replay(connection);
+                }
+            } catch (IOException | JMSException e) {
+                System.out.println("### Caught in " + MODE + " " + e);
+            } finally {
+                isShutdown = true;  // done
+            }
+        }, SAMPLE_NAME + "-" + MODE);
+        worker.start();
+
+        System.out.printf("%s %s connected, and %s. Press [ENTER] to stop early.%n", API, SAMPLE_NAME,
+                drain ? "draining " + QUEUE_NAME + " to " + FILE : "replaying " + FILE + " to " + QUEUE_NAME);
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                System.out.printf("%s %s msgs/s: %,d, MB/s: %,.1f, total msgs: %,d%n", API, drain ? "Drained" : "Replayed",
+                        msgCounter.sumThenReset(), byteCounter.sumThenReset() / 1e6, msgTotal);
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        worker.join();  // which syncs, acknowledges or commits what it has done so far
+        System.out.printf("%s %s %,d messages%n", API, drain ? "Drained" : "Replayed", msgTotal);
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** streams the queue into the file, acknowledging messages only once they're safely on disk */
+    private static void drain(Connection connection) throws IOException, JMSException {
+        Session session = connection.createSession(false, SupportedProperty.SOL_CLIENT_ACKNOWLEDGE);
+        MessageConsumer consumer = session.createConsumer(session.createQueue(QUEUE_NAME));
+        connection.start();
+        List<Message> unsynced = new ArrayList<>(SYNC_EVERY);  // written, but not yet forced to disk and acknowledged
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);  // grows to the largest record, then reused
+        byte[] body = new byte[64 * 1024];
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            if (channel.size() == 0) {
+                buffer.clear();
+                buffer.putLong(FILE_MAGIC).putInt(FILE_VERSION).flip();
+                writeFully(channel, buffer);
+            } else {
+                truncateToLastRecord(channel, buffer);
+            }
+            while (!isShutdown) {
+                Message message = consumer.receive(IDLE_TIMEOUT_MS);
+                if (message == null) {
+                    if (!unsynced.isEmpty()) {  // the broker may be holding back, at its max unacked messages per flow
+                        syncAndAcknowledge(channel, unsynced);
+                        continue;
+                    }
+                    System.out.printf("%s is empty, done%n", QUEUE_NAME);
+                    break;
+                }
+                if (message instanceof BytesMessage) {
+                    BytesMessage bytesMessage = (BytesMessage)message;
+                    int length = (int)bytesMessage.getBodyLength();
+                    if (length > body.length) {
+                        body = new byte[Math.max(length, body.length * 2)];
+                    }
+                    bytesMessage.readBytes(body, length);
+                    buffer = encode(buffer, message, BODY_BYTES, body, length);
+                } else if (message instanceof TextMessage) {
+                    String text = ((TextMessage)message).getText();
+                    byte[] textBytes = text == null ? new byte[0] : text.getBytes(StandardCharsets.UTF_8);
+                    buffer = encode(buffer, message, BODY_TEXT, textBytes, textBytes.length);
+                } else {  // left on the queue, unacknowledged
+                    System.out.printf("### Unsupported message type %s, stopping%n", message.getClass().getSimpleName());
+                    break;
+                }
+                int recordLength = buffer.remaining();
+                writeFully(channel, buffer);
+                unsynced.add(message);
+                msgCounter.increment();
+                byteCounter.add(recordLength);
+                if (unsynced.size() >= SYNC_EVERY) {
+                    syncAndAcknowledge(channel, unsynced);
+                }
+            }
+            syncAndAcknowledge(channel, unsynced);
+        } finally {
+            consumer.close();
+            session.close();
+        }
+    }
+
+    /**
+     * Positions an existing file for appending after its last complete record, truncating a partial record left by
+     * a drain that was killed mid-write, so the new records aren't swallowed by it on replay.
+     */
+    private static void truncateToLastRecord(FileChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.clear().limit(FILE_HEADER_LENGTH);
+        if (!readFully(channel, buffer) || buffer.flip().getLong() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+            throw new IOException(FILE + " is not a version " + FILE_VERSION + " " + SAMPLE_NAME + " file, not appending to it");
+        }
+        long size = channel.size();
+        long end = FILE_HEADER_LENGTH;  // of the last complete record
+        while (end + 4 <= size) {
+            buffer.clear().limit(4);
+            channel.position(end);
+            readFully(channel, buffer);
+            int recordLength = buffer.flip().getInt();
+            if (recordLength <= 0 || end + 4 + recordLength > size) {
+                break;  // cut short
+            }
+            end += 4 + recordLength;
+        }
+        if (end < size) {
+            System.out.printf("### %s ends with a partial record, truncated it%n", FILE);
+            channel.truncate(end);
+        }
+        channel.position(end);
+    }
+
+    private static void syncAndAcknowledge(FileChannel channel, List<Message> unsynced) throws IOException, JMSException {
+        channel.force(false);  // on disk, so now it's safe to let the broker delete them
+        for (Message message : unsynced) {
+            message.acknowledge();  // SOL_CLIENT_ACKNOWLEDGE: just this message
+        }
+        msgTotal += unsynced.size();
+        unsynced.clear();
+    }
+
+    /** streams the file back to the queue, paced, in transactions */
+    private static void replay(Connection connection) throws IOException, JMSException {
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);
+        Queue queue = session.createQueue(QUEUE_NAME);
+        MessageProducer producer = session.createProducer(queue);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(64 * 1024);  // grows to the largest record, then reused
+        byte[] body = new byte[64 * 1024];
+        BytesMessage bytesMessage = session.createBytesMessage();  // reused, a send() is complete when it returns
+        TextMessage textMessage = session.createTextMessage();
+        RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
+        int uncommitted = 0;
+        long sentOffset = FILE_HEADER_LENGTH;  // the end of the last record sent
+        try (FileChannel channel = FileChannel.open(FILE, StandardOpenOption.READ)) {
+            buffer.clear().limit(FILE_HEADER_LENGTH);
+            if (!readFully(channel, buffer) || buffer.flip().getLong() != FILE_MAGIC || buffer.getInt() != FILE_VERSION) {
+                throw new IOException(FILE + " is not a " + SAMPLE_NAME + " file");
+            }
+            sentOffset = readReplayOffset(channel.size());
+            if (sentOffset > FILE_HEADER_LENGTH) {
+                System.out.printf("Resuming the replay at offset %,d, as saved in %s%n", sentOffset, OFFSET_FILE);
+            }
+            channel.position(sentOffset);
+            pacer.start();
+            while (!isShutdown) {
+                buffer.clear().limit(4);
+                if (!readFully(channel, buffer)) {
+                    break;  // end of file
+                }
+                int recordLength = buffer.flip().getInt();
+                if (recordLength <= 0 || channel.position() + recordLength > channel.size()) {
+                    System.out.printf("### %s has a corrupt or partial record at offset %,d, stopping%n", FILE,
+                            channel.position() - 4);
+                    break;
+                }
+                if (recordLength > buffer.capacity()) {
+                    buffer = ByteBuffer.allocateDirect(Math.max(recordLength, buffer.capacity() * 2));
+                }
+                buffer.clear().limit(recordLength);
+                readFully(channel, buffer);  // all there, checked above
+                buffer.flip();
+                pacer.acquire();
+                body = decodeAndSend(buffer, body, bytesMessage, textMessage, session, producer);
+                sentOffset = channel.position();
+                if (++uncommitted >= SYNC_EVERY) {
+                    session.commit();
+                    saveReplayOffset(sentOffset);
+                    msgTotal += uncommitted;
+                    uncommitted = 0;
+                }
+                msgCounter.increment();
+                byteCounter.add(4 + recordLength);
+            }
+            session.commit();
+            saveReplayOffset(sentOffset);
+            msgTotal += uncommitted;
+        } catch (InterruptedException e) {
+            session.commit();  // what's sent so far
+            saveReplayOffset(sentOffset);
+            msgTotal += uncommitted;
+        } finally {
+            producer.close();
+            session.close();
+        }
+    }
+
+    /** @return the offset a previous replay of the file got to, or its first record if there's no saved offset */
+    private static long readReplayOffset(long fileSize) throws IOException {
+        if (!Files.exists(OFFSET_FILE)) {
+            return FILE_HEADER_LENGTH;
+        }
+        long offset;
+        try {
+            offset = Long.parseLong(new String(Files.readAllBytes(OFFSET_FILE), StandardCharsets.UTF_8).trim());
+        } catch (NumberFormatException e) {
+            offset = -1;
+        }
+        if (offset < FILE_HEADER_LENGTH || offset > fileSize) {
+            throw new IOException(OFFSET_FILE + " doesn't fit " + FILE + ", delete it to replay the whole file");
+        }
+        return offset;
+    }
+
+    /** saves the offset the replay has committed up to, replacing the offset file atomically */
+    private static void saveReplayOffset(long offset) throws IOException {
+        Path tempFile = OFFSET_FILE.resolveSibling(OFFSET_FILE.getFileName() + ".tmp");
+        Files.write(tempFile, Long.toString(offset).getBytes(StandardCharsets.UTF_8));
+        Files.move(tempFile, OFFSET_FILE, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    /** @return the buffer holding the encoded record, ready to write; it's a bigger one if it had to grow */
+    private static ByteBuffer encode(ByteBuffer buffer, Message message, byte bodyType, byte[] body, int bodyLength)
+            throws JMSException {
+        while (true) {
+            buffer.clear();
+            try {
+                buffer.putInt(0);  // the record length, filled in below
+                buffer.put(bodyType);
+                buffer.put((byte)message.getJMSDeliveryMode());
+                buffer.put((byte)message.getJMSPriority());
+                buffer.putLong(message.getJMSExpiration());
+                putString(buffer, message.getJMSType());
+                putDestination(buffer, message.getJMSReplyTo());
+                putString(buffer, message.getJMSCorrelationID());
+                int countPosition = buffer.position();
+                buffer.putInt(0);  // the property count, filled in below
+                int count = 0;
+                for (Enumeration<?> names = message.getPropertyNames(); names.hasMoreElements(); ) {
+                    String name = (String)names.nextElement();
+                    if (putProperty(buffer, name, message.getObjectProperty(name))) {
+                        count++;
+                    }
+                }
+                buffer.putInt(countPosition, count);
+                buffer.putInt(bodyLength);
+                buffer.put(body, 0, bodyLength);
+                buffer.putInt(0, buffer.position() - 4);
+                buffer.flip();
+                return buffer;
+            } catch (BufferOverflowException e) {  // rare: grow, and encode again
+                buffer = ByteBuffer.allocateDirect(buffer.capacity() * 2);
+            }
+        }
+    }
+
+    private static boolean putProperty(ByteBuffer buffer, String name, Object value) {
+        if (value instanceof String) {
+            putString(buffer, name);
+            buffer.put(PROP_STRING);
+            putString(buffer, (String)value);
+        } else if (value instanceof Boolean) {
+            putString(buffer, name);
+            buffer.put(PROP_BOOLEAN).put((byte)((Boolean)value ? 1 : 0));
+        } else if (value instanceof Byte) {
+            putString(buffer, name);
+            buffer.put(PROP_BYTE).put((Byte)value);
+        } else if (value instanceof Short) {
+            putString(buffer, name);
+            buffer.put(PROP_SHORT).putShort((Short)value);
+        } else if (value instanceof Integer) {
+            putString(buffer, name);
+            buffer.put(PROP_INT).putInt((Integer)value);
+        } else if (value instanceof Long) {
+            putString(buffer, name);
+            buffer.put(PROP_LONG).putLong((Long)value);
+        } else if (value instanceof Float) {
+            putString(buffer, name);
+            buffer.put(PROP_FLOAT).putFloat((Float)value);
+        } else if (value instanceof Double) {
+            putString(buffer, name);
+            buffer.put(PROP_DOUBLE).putDouble((Double)value);
+        } else {
+            return false;  // not a JMS property type
+        }
+        return true;
+    }
+
+    /** @return the body buffer, a bigger one if it had to grow */
+    private static byte[] decodeAndSend(ByteBuffer buffer, byte[] body, BytesMessage bytesMessage,
+            TextMessage textMessage, Session session, MessageProducer producer) throws IOException, JMSException {
+        try {
+            byte bodyType = buffer.get();
+            int deliveryMode = buffer.get();
+            int priority = buffer.get();
+            long expiration = buffer.getLong();
+            String type = getString(buffer);
+            byte replyToType = buffer.get();
+            String replyToName = getString(buffer);
+            String correlationId = getString(buffer);
+            int propertyCount = buffer.getInt();
+            int propertiesPosition = buffer.position();
+            for (int i = 0; i < propertyCount; i++) {  // skip them, they're set once the message exists
+                getString(buffer);
+                skipPropertyValue(buffer);
+            }
+            int bodyLength = buffer.getInt();
+            if (bodyLength > body.length) {
+                body = new byte[Math.max(bodyLength, body.length * 2)];
+            }
+            buffer.get(body, 0, bodyLength);
+            Message message;
+            if (bodyType == BODY_BYTES) {
+                bytesMessage.clearBody();  // re-use the message
+                bytesMessage.writeBytes(body, 0, bodyLength);
+                message = bytesMessage;
+            } else if (bodyType == BODY_TEXT) {
+                textMessage.clearBody();  // re-use the message
+                textMessage.setText(new String(body, 0, bodyLength, StandardCharsets.UTF_8));
+                message = textMessage;
+            } else {
+                throw new IOException("Unknown body type " + bodyType);
+            }
+            message.clearProperties();
+            message.setJMSCorrelationID(correlationId);
+            message.setJMSType(type);
+            message.setJMSReplyTo(replyToType == DEST_QUEUE ? session.createQueue(replyToName)
+                    : replyToType == DEST_TOPIC ? session.createTopic(replyToName) : null);
+            buffer.position(propertiesPosition);
+            for (int i = 0; i < propertyCount; i++) {
+                setProperty(buffer, message, getString(buffer));
+            }
+            long timeToLive = Message.DEFAULT_TIME_TO_LIVE;
+            if (expiration != 0) {  // what's left of it, a message that has expired since goes for the broker to discard
+                timeToLive = Math.max(1, expiration - System.currentTimeMillis());
+            }
+            producer.send(message, deliveryMode, priority, timeToLive);
+            return body;
+        } catch (BufferUnderflowException e) {
+            throw new IOException("Corrupt record in " + FILE, e);
+        }
+    }
+
+    private static void setProperty(ByteBuffer buffer, Message message, String name) throws IOException, JMSException {
+        byte type = buffer.get();
+        switch (type) {
+            case PROP_STRING: message.setStringProperty(name, getString(buffer)); break;
+            case PROP_BOOLEAN: message.setBooleanProperty(name, buffer.get() != 0); break;
+            case PROP_BYTE: message.setByteProperty(name, buffer.get()); break;
+            case PROP_SHORT: message.setShortProperty(name, buffer.getShort()); break;
+            case PROP_INT: message.setIntProperty(name, buffer.getInt()); break;
+            case PROP_LONG: message.setLongProperty(name, buffer.getLong()); break;
+            case PROP_FLOAT: message.setFloatProperty(name, buffer.getFloat()); break;
+            case PROP_DOUBLE: message.setDoubleProperty(name, buffer.getDouble()); break;
+            default: throw new IOException("Unknown property type " + type);
+        }
+    }
+
+    private static void skipPropertyValue(ByteBuffer buffer) throws IOException {
+        byte type = buffer.get();
+        switch (type) {
+            case PROP_STRING: getString(buffer); break;
+            case PROP_BOOLEAN: case PROP_BYTE: buffer.get(); break;
+            case PROP_SHORT: buffer.getShort(); break;
+            case PROP_INT: case PROP_FLOAT: buffer.getInt(); break;
+            case PROP_LONG: case PROP_DOUBLE: buffer.getLong(); break;
+            default: throw new IOException("Unknown property type " + type);
+        }
+    }
+
+    /** a queue or topic by name; other destinations are dropped */
+    private static void putDestination(ByteBuffer buffer, Destination destination) throws JMSException {
+        if (destination instanceof Queue) {
+            buffer.put(DEST_QUEUE);
+            putString(buffer, ((Queue)destination).getQueueName());
+        } else if (destination instanceof Topic) {
+            buffer.put(DEST_TOPIC);
+            putString(buffer, ((Topic)destination).getTopicName());
+        } else {
+            buffer.put(DEST_NONE);
+            putString(buffer, null);
+        }
+    }
+
+    /** a length-prefixed UTF-8 string, length -1 for null */
+    private static void putString(ByteBuffer buffer, String value) {
+        if (value == null) {
+            buffer.putInt(-1);
+            return;
+        }
+        byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+        buffer.putInt(bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getInt();
+        if (length < 0) {
+            return null;
+        }
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    private static void writeFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+    }
+
+    /** @return false if the file ended before the buffer was full */
+    private static boolean readFully(FileChannel channel, ByteBuffer buffer) throws IOException {
+        while (buffer.hasRemaining()) {
+            if (channel.read(buffer) < 0) {
+                return false;
+            }
+        }
+        return true;
+    }
+}
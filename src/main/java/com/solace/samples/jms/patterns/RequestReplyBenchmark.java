@@ -0,0 +1,272 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.LatencyStats;
+import com.solace.samples.jms.util.RatePacer;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import com.solacesystems.jms.SupportedProperty;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageConsumer;
+import javax.jms.MessageProducer;
+import javax.jms.Session;
+import javax.jms.TextMessage;
+import javax.jms.Topic;
+import org.HdrHistogram.Histogram;
+
+/**
+ * Measures request/reply round-trip time (RTT) and throughput under load, for sizing replier fleets.  Run it
+ * against ConcurrentReplier (or any replier on the same request topic), or with {@code -DembeddedReplier=true} to
+ * start a simple echo replier in this process.
+ * <p>
+ * Each of N requestor threads has its own {@link AsyncRequestor} (Sessions and reply queue), in one of two modes:
+ * <ul>
+ *   <li>open loop, with {@code -Drate}: requests are sent on a fixed schedule whether or not replies keep up, like
+ *       independent clients would, and RTT is measured from each request's intended send time, so a stall in the
+ *       requestor or replier shows up in the results instead of being hidden (no coordinated omission)
+ *   <li>closed loop, the default: each requestor keeps a fixed number of requests in flight, sending a new one as
+ *       each reply arrives, which finds the maximum throughput for that concurrency
+ * </ul>
+ * Every second it prints the replies/s, timeouts and RTT percentiles, and the whole run's RTT percentiles on exit.
+ * Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code requestors} - number of requestor threads, each with its own AsyncRequestor (default 1)
+ *   <li>{@code rate} - total requests/s for open loop, 0 for closed loop (default 0)
+ *   <li>{@code concurrency} - requests in flight per requestor, for closed loop (default 100)
+ *   <li>{@code payloadSize} - request payload size in characters (default 100)
+ *   <li>{@code replyTimeoutMs} - how long to wait for each reply (default 10000)
+ *   <li>{@code hlogFile} - also write each interval's RTT histogram to this {@code .hlog} file (default none)
+ *   <li>{@code embeddedReplier} - also run an echo replier in this process (default false)
+ * </ul>
+ */
+public class RequestReplyBenchmark {
+
+    private static final String SAMPLE_NAME = RequestReplyBenchmark.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final String REQUEST_TOPIC_NAME = "T/GettingStarted/requests";
+    private static final int NUM_REQUESTORS = Math.max(1, Integer.getInteger("requestors", 1));
+    private static final int RATE = Math.max(0, Integer.getInteger("rate", 0));
+    private static final int CONCURRENCY = Math.max(1, Integer.getInteger("concurrency", 100));
+    private static final int PAYLOAD_SIZE = Math.max(0, Integer.getInteger("payloadSize", 100));
+    private static final long REPLY_TIMEOUT_MS = Long.getLong("replyTimeoutMs", 10000);
+    private static final String HLOG_FILE = System.getProperty("hlogFile");
+    private static final boolean EMBEDDED_REPLIER = Boolean.getBoolean("embeddedReplier");
+
+    private static final LongAdder requestCounter = new LongAdder();
+    private static final LongAdder replyCounter = new LongAdder();
+    private static final LongAdder timeoutCounter = new LongAdder();
+    private static final LongAdder errorCounter = new LongAdder();
+    private static LatencyStats rttStats;
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -Drequestors=<num> -Drate=<requests/s, 0=closed loop> -Dconcurrency=<requests per requestor>%n");
+            System.out.printf("            -DpayloadSize=<chars> -DreplyTimeoutMs=<ms> -DhlogFile=<RTT histogram log file>%n");
+            System.out.printf("            -DembeddedReplier=<true|false>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(2);       // recommended settings
+        connectionFactory.setConnectRetriesPerHost(2);  // recommended settings
+        connectionFactory.setXmlPayload(false);         // use the normal payload section for TextMessage
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+        Connection replierConnection = null;
+        if (EMBEDDED_REPLIER) {  // its own connection, so it doesn't share a socket with the requestors
+            connectionFactory.setClientID(API+"_"+SAMPLE_NAME+"_replier");
+            replierConnection = connectionFactory.createConnection();
+            startEchoReplier(replierConnection);
+        }
+
+        rttStats = new LatencyStats(HLOG_FILE);
+        Topic requestTopic;
+        try (Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE)) {
+            requestTopic = session.createTopic(REQUEST_TOPIC_NAME);  // a Topic can be used by any Session
+        }
+        char[] payloadChars = new char[PAYLOAD_SIZE];
+        Arrays.fill(payloadChars, 'x');
+        String payload = new String(payloadChars);
+
+        List<AsyncRequestor> requestors = new ArrayList<>();
+        List<Thread> requestorThreads = new ArrayList<>();
+        for (int i = 0; i < NUM_REQUESTORS; i++) {
+            AsyncRequestor requestor = new AsyncRequestor(connection, REPLY_TIMEOUT_MS);
+            requestors.add(requestor);
+            Runnable loop = RATE > 0 ? () -> openLoop(requestor, requestTopic, payload, (double)RATE / NUM_REQUESTORS)
+                    : () -> closedLoop(requestor, requestTopic, payload);
+            Thread thread = new Thread(loop, SAMPLE_NAME + "-requestor-" + i);
+            thread.setDaemon(true);
+            requestorThreads.add(thread);
+        }
+        connection.start();  // start receiving replies
+        for (Thread thread : requestorThreads) {
+            thread.start();
+        }
+
+        System.out.printf("%s %s connected, and running %s with %d requestor(s). Press [ENTER] to quit.%n", API,
+                SAMPLE_NAME, RATE > 0 ? "open loop at " + RATE + " requests/s" : "closed loop, " + CONCURRENCY
+                        + " requests in flight each", NUM_REQUESTORS);
+        Histogram runHistogram = new Histogram(3);
+        long runReplies = 0, runTimeouts = 0, runStartNanos = System.nanoTime();
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                int inFlight = 0;
+                for (AsyncRequestor requestor : requestors) {
+                    inFlight += requestor.getInFlightCount();
+                }
+                long replies = replyCounter.sumThenReset();
+                long timeouts = timeoutCounter.sumThenReset();
+                runReplies += replies;
+                runTimeouts += timeouts;
+                Histogram interval = rttStats.takeInterval();
+                runHistogram.add(interval);
+                System.out.printf("%s Requests/s: %,d, Replies/s: %,d, timeouts: %,d, errors: %,d, in flight: %,d%n",
+                        API, requestCounter.sumThenReset(), replies, timeouts, errorCounter.sumThenReset(), inFlight);
+                System.out.printf("    RTT: %s%n", LatencyStats.summary(interval));
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        double runSec = (System.nanoTime() - runStartNanos) / 1e9;
+        System.out.printf("%s Run total: %,d replies in %.1f s (%,.0f replies/s), %,d timeouts%n", API, runReplies,
+                runSec, runReplies / runSec, runTimeouts);
+        System.out.printf("    RTT: %s%n", LatencyStats.summary(runHistogram));
+        for (Thread thread : requestorThreads) {
+            thread.join(1000);
+        }
+        connection.stop();
+        for (AsyncRequestor requestor : requestors) {
+            requestor.close();
+        }
+        connection.close();
+        if (replierConnection != null) {
+            replierConnection.close();
+        }
+        rttStats.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** sends requests on a fixed schedule, RTT is measured from when each one should have been sent */
+    private static void openLoop(AsyncRequestor requestor, Topic requestTopic, String payload, double rate) {
+        RatePacer pacer = new RatePacer(rate);
+        pacer.start();
+        try {
+            while (!isShutdown) {
+                long intendedSendNanos = pacer.acquire();
+                send(requestor, requestTopic, payload, intendedSendNanos, null);
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+
+    /** keeps a fixed number of requests in flight, each reply frees a slot for the next request */
+    private static void closedLoop(AsyncRequestor requestor, Topic requestTopic, String payload) {
+        Semaphore inFlightSlots = new Semaphore(CONCURRENCY);
+        try {
+            while (!isShutdown) {
+                if (inFlightSlots.tryAcquire(100, TimeUnit.MILLISECONDS)) {  // else all busy, check for shutdown
+                    send(requestor, requestTopic, payload, System.nanoTime(), inFlightSlots);
+                }
+            }
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+
+    private static void send(AsyncRequestor requestor, Topic requestTopic, String payload, long sendNanos,
+            Semaphore inFlightSlots) {
+        try {
+            requestCounter.increment();
+            requestor.request(requestTopic, payload).whenComplete((reply, e) -> {  // on the JMS dispatcher or timer thread
+                if (e == null) {
+                    rttStats.recordNanos(System.nanoTime() - sendNanos);
+                    replyCounter.increment();
+                } else if (e instanceof TimeoutException) {
+                    timeoutCounter.increment();
+                } else if (!isShutdown) {  // else failed by close()
+                    errorCounter.increment();
+                }
+                if (inFlightSlots != null) {
+                    inFlightSlots.release();
+                }
+            });
+        } catch (JMSException e) {
+            errorCounter.increment();
+            if (inFlightSlots != null) {
+                inFlightSlots.release();
+            }
+        }
+    }
+
+    /** replies to each request with its own payload, on the JMS dispatcher thread */
+    private static void startEchoReplier(Connection connection) throws JMSException {
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        MessageProducer replyProducer = session.createProducer(null);
+        replyProducer.setDeliveryMode(DeliveryMode.NON_PERSISTENT);
+        replyProducer.setDisableMessageID(true);
+        replyProducer.setDisableMessageTimestamp(true);
+        MessageConsumer requestConsumer = session.createConsumer(session.createTopic(REQUEST_TOPIC_NAME));
+        requestConsumer.setMessageListener(request -> {  // lambda, MessageListener.onMessage(message)
+            try {
+                if (request.getJMSReplyTo() == null) {
+                    return;
+                }
+                TextMessage reply = session.createTextMessage(((TextMessage)request).getText());
+                reply.setJMSCorrelationID(request.getJMSCorrelationID());
+                reply.setBooleanProperty(SupportedProperty.SOLACE_JMS_PROP_IS_REPLY_MESSAGE, Boolean.TRUE);
+                replyProducer.send(request.getJMSReplyTo(), reply);
+            } catch (JMSException | ClassCastException e) {
+                System.out.println("### Caught in echo replier " + e);
+            }
+        });
+        connection.start();
+    }
+}
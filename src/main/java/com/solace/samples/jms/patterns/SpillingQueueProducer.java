@@ -0,0 +1,505 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.Backoff;
+import com.solace.samples.jms.util.EpochNanoClock;
+import com.solace.samples.jms.util.PayloadHeader;
+import com.solace.samples.jms.util.RatePacer;
+import com.solace.samples.jms.util.SegmentLog;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.jms.BytesMessage;
+import javax.jms.CompletionListener;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.ResourceAllocationException;
+import javax.jms.Session;
+
+/**
+ * A Guaranteed (persistent) producer that never makes the application wait for the broker: {@link #publish} appends
+ * the message to a local {@link SegmentLog}, memory-mapped segment files, and returns.  A sender thread reads the log
+ * in order and sends asynchronously with a window of messages in flight, like StreamingQueueProducer, and commits
+ * each message in the log once the broker has acknowledged it.
+ * <p>
+ * While the broker is reachable and keeping up, the log holds little more than the window, in one segment that is
+ * deleted soon after it fills, usually before the OS has written it to disk, so it costs about a memory copy.  The
+ * sender thread makes the connection, so publishing can start before the broker is reachable.  While the connection
+ * is down (it retries forever, to start with too) or the window is full, the sender stops and the backlog spills to
+ * disk, limited only by disk space, and is sent in order once the broker is back.  A message the broker rejects is
+ * sent again, with the rest of the window, once the window has settled, so no message is lost, though it then
+ * arrives after the messages that were in flight behind it.  A rejection that may clear by itself (e.g. the queue is
+ * full) is retried for as long as it takes, but one that won't (e.g. the message is too big for the queue, or an ACL
+ * denies it) only {@code maxResends} times: then the message is moved to {@code dead-letters.bin} in the spill
+ * directory (length-prefixed records), reported, and committed, so it doesn't hold up the messages behind it.
+ * Messages not yet acknowledged when the producer is
+ * closed, or the process dies, are still in the log and are sent when it's next opened, so a consumer can see a
+ * message twice (see IdempotentQueueConsumer).
+ * <p>
+ * Run it, stop the broker (or shut down its client-username) for a while, and watch the backlog grow and then drain.
+ * Every second it prints the published, sent and acknowledged msgs/s, failures and resends, the backlog in the log
+ * and its segment files, and the longest a {@code publish()} call took.  Each payload starts with a
+ * {@link PayloadHeader}, so consumers can detect losses.  Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code rate} - target publish rate in msgs/s, per publishing thread (default 10000)
+ *   <li>{@code publisherThreads} - the number of application threads publishing (default 1)
+ *   <li>{@code payloadSize} - payload size in bytes (default 100)
+ *   <li>{@code publishWindow} - max messages sent but not yet acknowledged, at most 255 (default 255)
+ *   <li>{@code spillDir} - the directory for the log's segment files (default spill)
+ *   <li>{@code segmentSizeMb} - the size of each segment file (default 64)
+ *   <li>{@code maxResends} - resends of a message the broker rejects for good, before it's dead-lettered (default 10)
+ *   <li>{@code queueName} - the queue to send to, created if it doesn't exist (default Q/tutorial)
+ * </ul>
+ */
+public class SpillingQueueProducer implements AutoCloseable {
+
+    private static final String SAMPLE_NAME = SpillingQueueProducer.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final int MSG_RATE_PER_SEC = Math.max(1, Integer.getInteger("rate", 10000));
+    private static final int PUBLISHER_THREADS = Math.max(1, Integer.getInteger("publisherThreads", 1));
+    private static final int PAYLOAD_SIZE = Math.max(0, Integer.getInteger("payloadSize", 100));
+    private static final int MAX_PUB_ACK_WINDOW_SIZE = 255;  // the most the Solace API allows
+    private static final int PUBLISH_WINDOW = Math.max(1, Math.min(MAX_PUB_ACK_WINDOW_SIZE, Integer.getInteger("publishWindow", 255)));
+    private static final Path SPILL_DIR = Paths.get(System.getProperty("spillDir", "spill"));
+    private static final int SEGMENT_SIZE = Math.max(1, Math.min(1024, Integer.getInteger("segmentSizeMb", 64))) << 20;
+    private static final String QUEUE_NAME = System.getProperty("queueName", "Q/tutorial");
+    private static final int MAX_RESENDS = Math.max(0, Integer.getInteger("maxResends", 10));
+    private static final String DEAD_LETTER_FILE_NAME = "dead-letters.bin";
+    private static final long RESEND_DELAY_MS = 1000;  // between rounds of resending rejected messages
+    private static final long RECONNECT_DELAY_MS = 1000;  // between attempts to create the connection
+    private static final long CLOSE_TIMEOUT_MS = 5000;  // to wait for the messages in flight
+
+    private static final int FREE = 0, IN_FLIGHT = 1, ACKED = 2, FAILED = 3;  // Slot states
+
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    private final SegmentLog log;
+    private final ConnectionFactory connectionFactory;
+    private final String queueName;
+    private final int publishWindow;
+    private final int maxResends;
+    private final Path deadLetterFile;
+    private FileChannel deadLetterChannel;  // opened by the sender thread on the first dead letter
+    private volatile Connection connection;  // these are created and used by the sender thread, this is closed by close()
+    private Session session;                 // a Session is single-threaded
+    private MessageProducer producer;
+    private Slot[] slots;           // the ring of messages in flight
+    private byte[] readBuffer;      // grows to the largest message, only used by the sender thread
+    private final Thread sendThread;
+    private final LongAdder msgPublishedCounter = new LongAdder();
+    private final LongAdder msgSentCounter = new LongAdder();
+    private final LongAdder msgAckedCounter = new LongAdder();
+    private final LongAdder msgFailedCounter = new LongAdder();
+    private final LongAdder msgResentCounter = new LongAdder();
+    private final LongAdder msgDeadLetteredCounter = new LongAdder();
+    private final LongAccumulator maxPublishNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder msgCompletedTotal = new LongAdder();  // acknowledged or failed
+    private volatile long msgSentTotal = 0;  // only written by the sender thread
+    private volatile boolean closed = false;
+
+    /**
+     * Opens the log, and starts the sender thread, which connects (retrying until the broker is reachable) and sends,
+     * beginning with anything left in the log from before.  Messages can be published straight away.
+     * @param connectionFactory creates the connection, owned by this producer
+     * @param queueName the queue to send to
+     * @param spillDirectory the directory for the log, only used by this producer
+     * @param segmentSize the size of each segment file, which limits the message size
+     * @param publishWindow max messages sent but not yet acknowledged
+     * @param maxResends resends of a message the broker rejects for good, before it's moved to the dead-letter file
+     * @throws IOException if the log can't be opened
+     */
+    public SpillingQueueProducer(ConnectionFactory connectionFactory, String queueName, Path spillDirectory,
+            int segmentSize, int publishWindow, int maxResends) throws IOException {
+        log = new SegmentLog(spillDirectory, segmentSize);
+        this.connectionFactory = connectionFactory;
+        this.queueName = queueName;
+        this.publishWindow = publishWindow;
+        this.maxResends = maxResends;
+        deadLetterFile = spillDirectory.resolve(DEAD_LETTER_FILE_NAME);
+        readBuffer = new byte[4096];
+        sendThread = new Thread(this::sendLoop, SAMPLE_NAME + "-send");
+        sendThread.setDaemon(true);
+        sendThread.start();
+    }
+
+    /**
+     * Publishes a message: appends it to the log, to be sent in order.  Never waits for the broker.
+     * @param payload the message body, copied, so the array can be reused once this returns
+     * @throws IOException if the log can't grow, e.g. the disk is full
+     */
+    public void publish(byte[] payload) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Producer is closed");
+        }
+        long start = System.nanoTime();
+        log.append(payload, 0, payload.length);
+        maxPublishNanos.accumulate(System.nanoTime() - start);
+        msgPublishedCounter.increment();
+    }
+
+    /**
+     * Stops sending once the messages in flight are acknowledged (or a timeout), and closes the connection and the
+     * log; anything not acknowledged is sent when the log is next opened.
+     */
+    @Override
+    public void close() throws JMSException {
+        closed = true;
+        try {
+            sendThread.join(CLOSE_TIMEOUT_MS + 1000);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();  // close anyway, the log still has whatever wasn't acknowledged
+        }
+        if (connection != null) {
+            connection.close();  // and its session and producer
+        }
+        log.close();
+    }
+
+    /** on the sender thread */
+    private void sendLoop() {
+        try {
+            connect();
+        } catch (InterruptedException e) {
+            return;  // closed before the broker was reachable, everything is still in the log
+        }
+        Backoff backoff = new Backoff();
+        long next = 0;    // sequence number of the next message to send, its slot is next % window
+        long oldest = 0;  // sequence number of the oldest message not yet acknowledged
+        long closeDeadline = 0;
+        try {
+            while (true) {
+                oldest = retireAcknowledged(oldest, next);
+                if (closed) {  // stop sending, but give the messages in flight a chance to be acknowledged
+                    if (closeDeadline == 0) {
+                        closeDeadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+                    }
+                    if (getInFlightCount() <= 0 || System.nanoTime() > closeDeadline) {
+                        break;
+                    }
+                    LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                    continue;
+                }
+                if (oldest < next && slots[(int)(oldest % slots.length)].state == FAILED) {
+                    if (getInFlightCount() > 0) {  // let the window settle, then resend whatever failed, in order
+                        LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+                        continue;
+                    }
+                    Thread.sleep(RESEND_DELAY_MS);  // e.g. the queue is full, give it time
+                    for (long sequence = oldest; sequence < next; sequence++) {
+                        Slot slot = slots[(int)(sequence % slots.length)];
+                        if (slot.state == FAILED && slot.permanentRejections > maxResends) {
+                            deadLetter(slot);  // retired with the acknowledged messages
+                        } else if (slot.state == FAILED) {
+                            send(slot);
+                            msgResentCounter.increment();
+                        }
+                    }
+                    continue;
+                }
+                if (next - oldest == slots.length) {  // window full, wait for the oldest message's acknowledgement
+                    LockSupport.parkNanos(1000);
+                    continue;
+                }
+                Slot slot = slots[(int)(next % slots.length)];
+                int length = log.peekLength();
+                if (length < 0) {  // caught up
+                    backoff.idle();
+                    continue;
+                }
+                backoff.reset();
+                if (length > readBuffer.length) {
+                    readBuffer = new byte[Math.max(length, readBuffer.length * 2)];
+                }
+                log.read(readBuffer);
+                slot.message.clearBody();  // re-use the slot's message, its previous send has completed
+                slot.message.writeBytes(readBuffer, 0, length);
+                slot.logPosition = log.getReadPosition();
+                slot.permanentRejections = 0;
+                next++;
+                send(slot);
+            }
+        } catch (JMSException | IOException e) {  // the messages stay in the log, for next time
+            System.out.println("### Caught in sender " + e);
+            isShutdown = true;
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+        retireAcknowledged(oldest, next);  // commit the last acknowledgements, so they aren't sent again next time
+        if (getInFlightCount() > 0) {
+            System.out.printf("### %,d messages still not acknowledged on close, they stay in the log%n", getInFlightCount());
+        }
+        if (deadLetterChannel != null) {
+            try {
+                deadLetterChannel.close();
+            } catch (IOException e) {
+                System.out.println("### Caught closing " + deadLetterFile + " " + e);
+            }
+        }
+    }
+
+    /**
+     * On the sender thread: appends a message the broker keeps rejecting to the dead-letter file, forced to disk, and
+     * marks it done, so it's committed in the log in order with the acknowledged messages.
+     */
+    private void deadLetter(Slot slot) throws JMSException, IOException {
+        slot.message.reset();  // read-only, to read the body back
+        int length = (int)slot.message.getBodyLength();
+        slot.message.readBytes(readBuffer, length);  // the body came from the buffer, so it fits
+        if (deadLetterChannel == null) {
+            deadLetterChannel = FileChannel.open(deadLetterFile, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.APPEND);
+        }
+        ByteBuffer record = ByteBuffer.allocate(4 + length);  // rare, not worth reusing
+        record.putInt(length).put(readBuffer, 0, length).flip();
+        while (record.hasRemaining()) {
+            deadLetterChannel.write(record);
+        }
+        deadLetterChannel.force(false);  // before the log forgets it
+        msgDeadLetteredCounter.increment();
+        System.out.printf("### Message rejected %,d times, moved to %s: %s%n", slot.permanentRejections,
+                deadLetterFile, slot.rejection);
+        slot.state = ACKED;
+    }
+
+    /**
+     * @return whether a rejection may clear by itself, e.g. the queue is full or the connection is being
+     *     re-established, rather than e.g. the message is too big for the queue, or an ACL denies it
+     */
+    private static boolean isTransient(Exception exception) {
+        String text = String.valueOf(exception.getMessage());
+        return exception instanceof ResourceAllocationException || text.contains("Spool Over Quota")
+                || text.contains("Max Message Usage Exceeded") || text.contains("Queue Shutdown")
+                || text.contains("Transport");
+    }
+
+    /**
+     * Retires acknowledged messages in order, and commits them in the log.
+     * @return the sequence number of the oldest message still not acknowledged
+     */
+    private long retireAcknowledged(long oldest, long next) {
+        long commitPosition = -1;
+        while (oldest < next && slots[(int)(oldest % slots.length)].state == ACKED) {
+            Slot slot = slots[(int)(oldest % slots.length)];
+            commitPosition = slot.logPosition;
+            slot.state = FREE;
+            oldest++;
+        }
+        if (commitPosition >= 0) {
+            log.commit(commitPosition);
+        }
+        return oldest;
+    }
+
+    /** on the sender thread, retrying until it's connected or closed */
+    private void connect() throws InterruptedException {
+        while (!closed) {
+            try {
+                connection = connectionFactory.createConnection();
+                connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+                    System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+                    if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                        isShutdown = true;  // bail out
+                    }
+                });
+                session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+                producer = session.createProducer(session.createQueue(queueName));
+                producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+                producer.setDisableMessageTimestamp(true);  // don't set a send timestamp by default
+                slots = new Slot[publishWindow];
+                for (int i = 0; i < slots.length; i++) {
+                    slots[i] = new Slot(session.createBytesMessage());
+                }
+                System.out.println(API + " " + SAMPLE_NAME + " connected");
+                return;
+            } catch (JMSException e) {  // e.g. the broker isn't reachable yet, publishing carries on into the log
+                System.out.println("### Caught connecting, retrying: " + e);
+                if (connection != null) {
+                    try {
+                        connection.close();
+                    } catch (JMSException closeException) {
+                        // it's not working anyway
+                    }
+                    connection = null;
+                }
+                Thread.sleep(RECONNECT_DELAY_MS);
+            }
+        }
+        throw new InterruptedException("Closed before connecting");
+    }
+
+    private void send(Slot slot) {
+        slot.state = IN_FLIGHT;
+        try {
+            producer.send(slot.message, slot);  // asynchronous, the slot is called back once acknowledged
+            msgSentCounter.increment();
+            msgSentTotal++;
+        } catch (JMSException e) {  // never sent, it's resent with the failures
+            if (msgFailedCounter.sum() == 0) {  // at most once per report interval, don't flood the console
+                System.out.println("### Caught at producer.send() " + e);
+            }
+            msgFailedCounter.increment();
+            slot.state = FAILED;
+        }
+    }
+
+    private long getInFlightCount() {
+        return msgSentTotal - msgCompletedTotal.sum();
+    }
+
+    /** one position in the window: a message, where it is in the log, and the listener for its acknowledgement */
+    private class Slot implements CompletionListener {
+        private final BytesMessage message;
+        private long logPosition;  // to commit once this and every earlier message is acknowledged
+        private int permanentRejections;  // of this message, that resending won't fix; set before state
+        private Exception rejection;      // the last one, set before state
+        private volatile int state = FREE;
+
+        private Slot(BytesMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public void onCompletion(Message message) {  // on an API thread
+            msgAckedCounter.increment();
+            msgCompletedTotal.increment();
+            state = ACKED;
+        }
+
+        @Override
+        public void onException(Message message, Exception exception) {
+            if (msgFailedCounter.sum() == 0) {  // at most once per report interval, don't flood the console
+                System.out.println("### Caught in CompletionListener.onException() " + exception);
+            }
+            msgFailedCounter.increment();
+            msgCompletedTotal.increment();
+            if (!isTransient(exception)) {
+                permanentRejections++;
+            }
+            rejection = exception;
+            state = FAILED;
+        }
+    }
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -Drate=<msgs/s per thread> -DpublisherThreads=<num> -DpayloadSize=<bytes>%n");
+            System.out.printf("            -DpublishWindow=<num msgs> -DspillDir=<dir> -DsegmentSizeMb=<MB> -DqueueName=<queue>%n");
+            System.out.printf("            -DmaxResends=<num resends>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setConnectRetries(-1);        // retry forever, even to start with, publishing carries on
+        connectionFactory.setReconnectRetries(-1);      // into the log meanwhile
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue if it doesn't exist
+        connectionFactory.setPubAckWindowSize(PUBLISH_WINDOW);  // the app's window can't usefully be bigger
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+
+        // connects on its sender thread, so publishing can start while the broker is still unreachable
+        SpillingQueueProducer spillingProducer = new SpillingQueueProducer(connectionFactory, QUEUE_NAME, SPILL_DIR,
+                SEGMENT_SIZE, PUBLISH_WINDOW, MAX_RESENDS);
+        if (spillingProducer.log.getUnreadCount() > 0) {
+            System.out.printf("%s %s sending %,d messages left in %s from before%n", API, SAMPLE_NAME,
+                    spillingProducer.log.getUnreadCount(), SPILL_DIR);
+        }
+        List<Thread> publisherThreads = new ArrayList<>();
+        for (int i = 0; i < PUBLISHER_THREADS; i++) {
+            Thread thread = new Thread(() -> publishLoop(spillingProducer), SAMPLE_NAME + "-publisher-" + i);
+            thread.setDaemon(true);
+            thread.start();
+            publisherThreads.add(thread);
+        }
+
+        System.out.println(API + " " + SAMPLE_NAME + " running. Press [ENTER] to quit.");
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                System.out.printf("%s Published msgs/s: %,d, Sent msgs/s: %,d, Acked msgs/s: %,d, failed: %,d, resent: %,d, dead-lettered: %,d, in flight: %,d%n",
+                        API, spillingProducer.msgPublishedCounter.sumThenReset(), spillingProducer.msgSentCounter.sumThenReset(),
+                        spillingProducer.msgAckedCounter.sumThenReset(), spillingProducer.msgFailedCounter.sumThenReset(),
+                        spillingProducer.msgResentCounter.sumThenReset(), spillingProducer.msgDeadLetteredCounter.sumThenReset(),
+                        spillingProducer.getInFlightCount());
+                System.out.printf("    backlog: %,d msgs in %,d segment file(s), max publish() time: %,d us%n",
+                        spillingProducer.log.getUnreadCount(), spillingProducer.log.getSegmentCount(),
+                        TimeUnit.NANOSECONDS.toMicros(spillingProducer.maxPublishNanos.getThenReset()));
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        for (Thread thread : publisherThreads) {
+            thread.join(1000);
+        }
+        spillingProducer.close();  // which waits for the messages in flight to be acknowledged
+        System.out.println("Main thread quitting.");
+    }
+
+    /** on an application thread */
+    private static void publishLoop(SpillingQueueProducer spillingProducer) {
+        int streamId = ThreadLocalRandom.current().nextInt();
+        RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
+        pacer.start();
+        byte[] payload = new byte[PAYLOAD_SIZE];  // reused for every message, publish() copies it into the log
+        long sequence = 0;
+        try {
+            while (!isShutdown) {
+                long intendedSendTime = pacer.acquire();
+                sequence++;
+                if (payload.length >= PayloadHeader.LENGTH) {  // stamp send time & sequence, for latency & loss
+                    PayloadHeader.write(payload, EpochNanoClock.fromNanoTime(intendedSendTime), streamId, 0, sequence);
+                }
+                spillingProducer.publish(payload);
+            }
+        } catch (IOException e) {
+            System.out.println("### Caught at publish() " + e);
+            isShutdown = true;
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+    }
+}
@@ -0,0 +1,235 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.EpochNanoClock;
+import com.solace.samples.jms.util.LatencyStats;
+import com.solace.samples.jms.util.PayloadHeader;
+import com.solace.samples.jms.util.RatePacer;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.jms.BytesMessage;
+import javax.jms.CompletionListener;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * A streaming Guaranteed (persistent) producer.  Unlike QueueProducer, whose blocking {@code send()} waits for the
+ * broker to acknowledge each message, so throughput is capped at one message per round trip, this sends with the
+ * JMS 2.0 asynchronous {@code send(..., CompletionListener)} and keeps a window of messages in flight.
+ * <p>
+ * The messages in flight are tracked in a ring of slots, one per window position, each with its own message (a
+ * message must not be touched until its send completes) and its own CompletionListener, so no lookup is needed to
+ * find the message that an acknowledgement is for.  Sending waits when the slot for the next message is still in
+ * flight, i.e. when the window is full.  The window is also used for the API's publish acknowledgement window,
+ * which is at most 255.
+ * <p>
+ * Every second it prints the acknowledged msgs/s, the in-flight depth, and the ack latency (from the intended send
+ * time to the acknowledgement) percentiles.  Each payload starts with a {@link PayloadHeader}, so consumers can
+ * measure end-to-end latency and losses.  Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code rate} - target publish rate in msgs/s, 0 for as fast as the window allows (default 0)
+ *   <li>{@code payloadSize} - payload size in bytes (default 100)
+ *   <li>{@code publishWindow} - max messages sent but not yet acknowledged (default 255)
+ *   <li>{@code queueName} - the queue to send to, created if it doesn't exist (default Q/tutorial)
+ * </ul>
+ */
+public class StreamingQueueProducer {
+
+    private static final String SAMPLE_NAME = StreamingQueueProducer.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final int MSG_RATE_PER_SEC = Math.max(0, Integer.getInteger("rate", 0));
+    private static final int PAYLOAD_SIZE = Math.max(0, Integer.getInteger("payloadSize", 100));
+    private static final int PUBLISH_WINDOW = Math.max(1, Integer.getInteger("publishWindow", 255));
+    private static final String QUEUE_NAME = System.getProperty("queueName", "Q/tutorial");
+    private static final int MAX_PUB_ACK_WINDOW_SIZE = 255;  // the most the Solace API allows
+
+    private static final LongAdder msgSentCounter = new LongAdder();
+    private static final LongAdder msgAckedCounter = new LongAdder();
+    private static final LongAdder msgFailedCounter = new LongAdder();
+    private static final LongAdder windowWaitNanos = new LongAdder();
+    private static volatile long msgSentTotal = 0;  // only written by the sending thread
+    private static final LongAdder msgCompletedTotal = new LongAdder();  // acknowledged or failed
+    private static LatencyStats ackLatencyStats;
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -Drate=<msgs/s, 0=max> -DpayloadSize=<bytes> -DpublishWindow=<num msgs>%n");
+            System.out.printf("            -DqueueName=<queue>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(20);      // recommended settings
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue if it doesn't exist
+        // how many messages the API lets be unacknowledged by the broker, the app's window can't usefully be bigger
+        connectionFactory.setPubAckWindowSize(Math.min(PUBLISH_WINDOW, MAX_PUB_ACK_WINDOW_SIZE));
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        ackLatencyStats = new LatencyStats(null);
+        Session session = connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+        Queue queue = session.createQueue(QUEUE_NAME);
+        MessageProducer producer = session.createProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+        producer.setDisableMessageTimestamp(true);  // don't set a send timestamp by default
+        Slot[] slots = new Slot[PUBLISH_WINDOW];    // the ring of messages in flight
+        for (int i = 0; i < slots.length; i++) {
+            slots[i] = new Slot(session.createBytesMessage());
+        }
+
+        Thread sendThread = new Thread(() -> sendLoop(producer, slots), SAMPLE_NAME + "-send");
+        sendThread.setDaemon(true);
+        sendThread.start();
+
+        System.out.println(API + " " + SAMPLE_NAME + " connected, and running. Press [ENTER] to quit.");
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                System.out.printf("%s Sent msgs/s: %,d, Acked msgs/s: %,d, failed: %,d, in flight: %,d, waited %,d ms for the window%n",
+                        API, msgSentCounter.sumThenReset(), msgAckedCounter.sumThenReset(), msgFailedCounter.sumThenReset(),
+                        getInFlightCount(), TimeUnit.NANOSECONDS.toMillis(windowWaitNanos.sumThenReset()));
+                System.out.printf("    ack latency: %s%n", ackLatencyStats.intervalSummary());
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        sendThread.join(5000);  // which waits for the messages in flight to be acknowledged
+        producer.close();
+        session.close();
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** on the sending thread */
+    private static void sendLoop(MessageProducer producer, Slot[] slots) {
+        byte[] payload = new byte[PAYLOAD_SIZE];  // reused for every message
+        int streamId = ThreadLocalRandom.current().nextInt();
+        RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
+        pacer.start();
+        long sequence = 0;
+        try {
+            while (!isShutdown) {
+                long intendedSendTime = pacer.acquire();
+                Slot slot = slots[(int)(sequence % slots.length)];
+                if (slot.inFlight) {  // window full, wait for the oldest message's acknowledgement
+                    long waitStart = System.nanoTime();
+                    while (slot.inFlight && !isShutdown) {
+                        LockSupport.parkNanos(1000);
+                    }
+                    windowWaitNanos.add(System.nanoTime() - waitStart);
+                    if (slot.inFlight) {
+                        break;  // shutting down
+                    }
+                }
+                sequence++;
+                if (payload.length >= PayloadHeader.LENGTH) {  // stamp send time & sequence, for latency & loss
+                    PayloadHeader.write(payload, EpochNanoClock.fromNanoTime(intendedSendTime), streamId, 0, sequence);
+                }
+                slot.message.clearBody();  // re-use the slot's message, its previous send has completed
+                slot.message.writeBytes(payload);
+                slot.sendTimeNanos = intendedSendTime;
+                slot.inFlight = true;
+                try {
+                    producer.send(slot.message, slot);  // asynchronous, the slot is called back once acknowledged
+                } catch (JMSException e) {
+                    slot.inFlight = false;  // never sent
+                    throw e;
+                }
+                msgSentCounter.increment();
+                msgSentTotal++;
+            }
+        } catch (JMSException e) {
+            System.out.println("### Caught at producer.send() " + e);
+            isShutdown = true;
+        } catch (InterruptedException e) {
+            // shutting down
+        }
+        // wait for the messages in flight, so none are lost or left unaccounted for on exit
+        long deadline = System.nanoTime() + TimeUnit.SECONDS.toNanos(4);
+        while (getInFlightCount() > 0 && System.nanoTime() < deadline) {
+            LockSupport.parkNanos(TimeUnit.MILLISECONDS.toNanos(1));
+        }
+        if (getInFlightCount() > 0) {
+            System.out.printf("### %,d messages still not acknowledged on exit%n", getInFlightCount());
+        }
+    }
+
+    private static long getInFlightCount() {
+        return msgSentTotal - msgCompletedTotal.sum();
+    }
+
+    /** one position in the window: a message, and the listener for its acknowledgement */
+    private static class Slot implements CompletionListener {
+        private final BytesMessage message;
+        private long sendTimeNanos;            // written before the send, read by the callback
+        private volatile boolean inFlight = false;
+
+        private Slot(BytesMessage message) {
+            this.message = message;
+        }
+
+        @Override
+        public void onCompletion(Message message) {  // on an API thread
+            ackLatencyStats.recordNanos(System.nanoTime() - sendTimeNanos);
+            msgAckedCounter.increment();
+            msgCompletedTotal.increment();
+            inFlight = false;  // last, frees the slot for reuse
+        }
+
+        @Override
+        public void onException(Message message, Exception exception) {
+            if (msgFailedCounter.sum() == 0) {  // at most once per report interval, don't flood the console
+                System.out.println("### Caught in CompletionListener.onException() " + exception);
+            }
+            msgFailedCounter.increment();
+            msgCompletedTotal.increment();
+            inFlight = false;
+        }
+    }
+}
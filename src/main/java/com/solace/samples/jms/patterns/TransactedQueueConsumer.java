@@ -0,0 +1,185 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.LatencyStats;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.Connection;
+import javax.jms.JMSException;
+import javax.jms.Message;
+import javax.jms.MessageConsumer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * A Guaranteed (persistent) consumer that receives in local transactions: unlike QueueConsumer, which acknowledges
+ * every message, it receives a batch of messages and then commits them all at once, which removes the whole batch
+ * from the queue in one round trip.  If the consumer fails before the commit, the whole batch is redelivered.
+ * <p>
+ * A batch is committed when it reaches {@code batchSize} messages, or when its first message is
+ * {@code maxBatchDelayMs} old, whichever comes first.  The messages are received with a synchronous
+ * {@code receive(timeout)}, whose timeout is the time left until the batch is due, so a quiet queue doesn't hold a
+ * batch open.  Every second it prints the msgs/s, commits/s, the average batch size (and why the batches were
+ * committed), redelivered messages, and the commit latency percentiles.  Use it with TransactedQueueProducer.
+ * Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code batchSize} - max messages per transaction (default 100)
+ *   <li>{@code maxBatchDelayMs} - max time from a batch's first message to its commit (default 10)
+ *   <li>{@code queueName} - the queue to consume from, created if it doesn't exist (default Q/tutorial)
+ * </ul>
+ */
+public class TransactedQueueConsumer {
+
+    private static final String SAMPLE_NAME = TransactedQueueConsumer.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("batchSize", 100));
+    private static final long MAX_BATCH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("maxBatchDelayMs", 10));
+    private static final String QUEUE_NAME = System.getProperty("queueName", "Q/tutorial");
+    private static final long IDLE_RECEIVE_TIMEOUT_MS = 100;  // with no batch open, so shutdown is noticed
+
+    private static final LongAdder msgCommittedCounter = new LongAdder();
+    private static final LongAdder msgRedeliveredCounter = new LongAdder();
+    private static final LongAdder fullBatchCounter = new LongAdder();   // committed at batchSize
+    private static final LongAdder timedBatchCounter = new LongAdder();  // committed at maxBatchDelayMs
+    private static final LongAdder failedCommitCounter = new LongAdder();
+    private static LatencyStats commitLatencyStats;
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DbatchSize=<num msgs> -DmaxBatchDelayMs=<ms> -DqueueName=<queue>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(20);      // recommended settings
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue if it doesn't exist
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        commitLatencyStats = new LatencyStats(null);
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);  // a transacted session
+        Queue queue = session.createQueue(QUEUE_NAME);
+        MessageConsumer consumer = session.createConsumer(queue);
+        connection.start();  // start receiving messages
+
+        Thread receiveThread = new Thread(() -> receiveLoop(session, consumer), SAMPLE_NAME + "-receive");
+        receiveThread.setDaemon(true);
+        receiveThread.start();
+
+        System.out.printf("%s %s connected, and running with batches of up to %d msgs / %d ms. Press [ENTER] to quit.%n",
+                API, SAMPLE_NAME, BATCH_SIZE, TimeUnit.NANOSECONDS.toMillis(MAX_BATCH_DELAY_NANOS));
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                long msgs = msgCommittedCounter.sumThenReset();
+                long fullBatches = fullBatchCounter.sumThenReset();
+                long timedBatches = timedBatchCounter.sumThenReset();
+                long commits = fullBatches + timedBatches;
+                System.out.printf("%s Committed msgs/s: %,d, commits/s: %,d (%,d full, %,d timed), avg batch: %,.1f msgs, redelivered: %,d, failed commits: %,d%n",
+                        API, msgs, commits, fullBatches, timedBatches, commits == 0 ? 0 : (double)msgs / commits,
+                        msgRedeliveredCounter.sumThenReset(), failedCommitCounter.sumThenReset());
+                System.out.printf("    commit latency: %s%n", commitLatencyStats.intervalSummary());
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        receiveThread.join(1000);  // which commits the last batch
+        connection.stop();
+        consumer.close();
+        session.close();
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** on the receiving thread, which owns the Session */
+    private static void receiveLoop(Session session, MessageConsumer consumer) {
+        int batchCount = 0;
+        long batchDeadline = 0;
+        try {
+            while (!isShutdown) {
+                long timeoutMs = IDLE_RECEIVE_TIMEOUT_MS;
+                if (batchCount > 0) {  // wait no longer than the open batch is due
+                    timeoutMs = TimeUnit.NANOSECONDS.toMillis(batchDeadline - System.nanoTime());
+                    if (timeoutMs <= 0) {
+                        commit(session, batchCount, timedBatchCounter);
+                        batchCount = 0;
+                        continue;
+                    }
+                }
+                Message message = consumer.receive(timeoutMs);
+                if (message == null) {
+                    continue;  // timed out, the loop commits if the batch is due
+                }
+                if (message.getJMSRedelivered()) {  // e.g. its batch was rolled back
+                    msgRedeliveredCounter.increment();
+                }
+                // process the message here, it's only removed from the queue once its batch is committed
+                if (batchCount++ == 0) {
+                    batchDeadline = System.nanoTime() + MAX_BATCH_DELAY_NANOS;
+                }
+                if (batchCount >= BATCH_SIZE) {
+                    commit(session, batchCount, fullBatchCounter);
+                    batchCount = 0;
+                }
+            }
+            if (batchCount > 0) {  // don't leave the last messages to be redelivered
+                commit(session, batchCount, timedBatchCounter);
+            }
+        } catch (JMSException e) {
+            System.out.println("### Caught at consumer.receive() " + e);
+            isShutdown = true;
+        }
+    }
+
+    private static void commit(Session session, int batchCount, LongAdder batchCounter) {
+        long start = System.nanoTime();
+        try {
+            session.commit();  // one round trip to the broker for the whole batch
+            commitLatencyStats.recordNanos(System.nanoTime() - start);
+            msgCommittedCounter.add(batchCount);
+            batchCounter.increment();
+        } catch (JMSException e) {  // e.g. TransactionRolledBackException, the batch will be redelivered
+            System.out.println("### Caught at session.commit() " + e);
+            failedCommitCounter.increment();
+        }
+    }
+}
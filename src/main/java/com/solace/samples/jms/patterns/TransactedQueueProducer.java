@@ -0,0 +1,205 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import com.solace.samples.jms.util.EpochNanoClock;
+import com.solace.samples.jms.util.LatencyStats;
+import com.solace.samples.jms.util.PayloadHeader;
+import com.solace.samples.jms.util.RatePacer;
+import com.solacesystems.jms.SolConnectionFactory;
+import com.solacesystems.jms.SolJmsUtility;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.LockSupport;
+import javax.jms.BytesMessage;
+import javax.jms.Connection;
+import javax.jms.DeliveryMode;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.Queue;
+import javax.jms.Session;
+
+/**
+ * A Guaranteed (persistent) producer that sends in local transactions: unlike QueueProducer, which waits for the
+ * broker to acknowledge every message, it sends a batch of messages and then commits them all at once, paying one
+ * round trip per batch instead of per message.
+ * <p>
+ * A batch is committed when it reaches {@code batchSize} messages, or when its first message is
+ * {@code maxBatchDelayMs} old, whichever comes first, so a low or bursty send rate doesn't leave messages
+ * uncommitted for long.  Every second it prints the msgs/s, commits/s, the average batch size (and why the batches
+ * were committed), and the commit latency percentiles, so batch sizes can be compared run by run.  Use it with
+ * TransactedQueueConsumer.  Optional settings, passed as JVM system properties:
+ * <ul>
+ *   <li>{@code batchSize} - max messages per transaction (default 100)
+ *   <li>{@code maxBatchDelayMs} - max time from a batch's first message to its commit (default 10)
+ *   <li>{@code rate} - target publish rate in msgs/s, 0 for as fast as possible (default 0)
+ *   <li>{@code payloadSize} - payload size in bytes (default 100)
+ *   <li>{@code queueName} - the queue to send to, created if it doesn't exist (default Q/tutorial)
+ * </ul>
+ */
+public class TransactedQueueProducer {
+
+    private static final String SAMPLE_NAME = TransactedQueueProducer.class.getSimpleName();
+    private static final String API = "JMS";
+    private static final int BATCH_SIZE = Math.max(1, Integer.getInteger("batchSize", 100));
+    private static final long MAX_BATCH_DELAY_NANOS = TimeUnit.MILLISECONDS.toNanos(Integer.getInteger("maxBatchDelayMs", 10));
+    private static final int MSG_RATE_PER_SEC = Math.max(0, Integer.getInteger("rate", 0));
+    private static final int PAYLOAD_SIZE = Math.max(0, Integer.getInteger("payloadSize", 100));
+    private static final String QUEUE_NAME = System.getProperty("queueName", "Q/tutorial");
+
+    private static final LongAdder msgCommittedCounter = new LongAdder();
+    private static final LongAdder msgRolledBackCounter = new LongAdder();
+    private static final LongAdder fullBatchCounter = new LongAdder();   // committed at batchSize
+    private static final LongAdder timedBatchCounter = new LongAdder();  // committed at maxBatchDelayMs
+    private static final LongAdder failedCommitCounter = new LongAdder();
+    private static LatencyStats commitLatencyStats;
+    private static volatile boolean isShutdown = false;  // are we done yet?
+
+    /** Main method. */
+    public static void main(String... args) throws Exception {
+        if (args.length < 3) {  // Check command line arguments
+            System.out.printf("Usage: %s <host:port> <message-vpn> <client-username> [password]%n", SAMPLE_NAME);
+            System.out.printf("  Optional: -DbatchSize=<num msgs> -DmaxBatchDelayMs=<ms> -Drate=<msgs/s, 0=max>%n");
+            System.out.printf("            -DpayloadSize=<bytes> -DqueueName=<queue>%n%n");
+            System.exit(-1);
+        }
+        System.out.println(API + " " + SAMPLE_NAME + " initializing...");
+
+        // Programmatically create the connection factory using default settings
+        SolConnectionFactory connectionFactory = SolJmsUtility.createConnectionFactory();
+        connectionFactory.setHost(args[0]);          // host:port
+        connectionFactory.setVPN(args[1]);           // message-vpn
+        connectionFactory.setUsername(args[2]);      // client-username
+        if (args.length > 3) {
+            connectionFactory.setPassword(args[3]);  // client-password
+        }
+        connectionFactory.setReconnectRetries(20);      // recommended settings
+        connectionFactory.setConnectRetriesPerHost(5);  // recommended settings
+        connectionFactory.setDynamicDurables(true);     // create the queue if it doesn't exist
+        connectionFactory.setClientID(API+"_"+SAMPLE_NAME);  // change the name, easier to find
+        Connection connection = connectionFactory.createConnection();
+        connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+            System.out.println("### Connection ExceptionListener caught this: "+jmsException);
+            if (jmsException.getMessage().contains("JCSMPTransportException")) {
+                isShutdown = true;  // bail out
+            }
+        });
+
+        commitLatencyStats = new LatencyStats(null);
+        Session session = connection.createSession(true, Session.SESSION_TRANSACTED);  // a transacted session
+        Queue queue = session.createQueue(QUEUE_NAME);
+        MessageProducer producer = session.createProducer(queue);
+        producer.setDeliveryMode(DeliveryMode.PERSISTENT);
+        producer.setDisableMessageTimestamp(true);  // don't set a send timestamp by default
+
+        Thread sendThread = new Thread(() -> sendLoop(session, producer), SAMPLE_NAME + "-send");
+        sendThread.setDaemon(true);
+        sendThread.start();
+
+        System.out.printf("%s %s connected, and running with batches of up to %d msgs / %d ms. Press [ENTER] to quit.%n",
+                API, SAMPLE_NAME, BATCH_SIZE, TimeUnit.NANOSECONDS.toMillis(MAX_BATCH_DELAY_NANOS));
+        while (System.in.available() == 0 && !isShutdown) {
+            try {
+                Thread.sleep(1000);
+                long msgs = msgCommittedCounter.sumThenReset();
+                long fullBatches = fullBatchCounter.sumThenReset();
+                long timedBatches = timedBatchCounter.sumThenReset();
+                long commits = fullBatches + timedBatches;
+                System.out.printf("%s Committed msgs/s: %,d, commits/s: %,d (%,d full, %,d timed), avg batch: %,.1f msgs, failed commits: %,d (%,d msgs rolled back)%n",
+                        API, msgs, commits, fullBatches, timedBatches, commits == 0 ? 0 : (double)msgs / commits,
+                        failedCommitCounter.sumThenReset(), msgRolledBackCounter.sumThenReset());
+                System.out.printf("    commit latency: %s%n", commitLatencyStats.intervalSummary());
+            } catch (InterruptedException e) {
+                // Thread.sleep() interrupted... probably getting shut down
+            }
+        }
+        isShutdown = true;
+        sendThread.join(1000);  // which commits the last batch
+        producer.close();
+        session.close();
+        connection.close();
+        System.out.println("Main thread quitting.");
+    }
+
+    /** on the sending thread, which owns the Session */
+    private static void sendLoop(Session session, MessageProducer producer) {
+        byte[] payload = new byte[PAYLOAD_SIZE];  // reused for every message
+        int streamId = ThreadLocalRandom.current().nextInt();
+        RatePacer pacer = new RatePacer(MSG_RATE_PER_SEC);
+        pacer.start();
+        long sequence = 0;
+        int batchCount = 0;
+        long batchDeadline = 0;
+        try {
+            BytesMessage message = session.createBytesMessage();  // reused, a send() is complete when it returns
+            while (!isShutdown) {
+                if (batchCount > 0 && pacer.getNextSendTime() > batchDeadline) {  // the batch would get too old
+                    long waitNanos;
+                    while ((waitNanos = batchDeadline - System.nanoTime()) > 0) {
+                        LockSupport.parkNanos(waitNanos);
+                    }
+                    commit(session, batchCount, timedBatchCounter);
+                    batchCount = 0;
+                }
+                long intendedSendTime = pacer.acquire();
+                sequence++;
+                if (payload.length >= PayloadHeader.LENGTH) {  // stamp send time & sequence, for latency & loss
+                    PayloadHeader.write(payload, EpochNanoClock.fromNanoTime(intendedSendTime), streamId, 0, sequence);
+                }
+                message.clearBody();
+                message.writeBytes(payload);
+                producer.send(message);  // only sent to the broker's transaction, not the queue
+                if (batchCount++ == 0) {
+                    batchDeadline = System.nanoTime() + MAX_BATCH_DELAY_NANOS;
+                }
+                if (batchCount >= BATCH_SIZE) {
+                    commit(session, batchCount, fullBatchCounter);
+                    batchCount = 0;
+                } else if (System.nanoTime() >= batchDeadline) {  // e.g. the sends themselves are slow
+                    commit(session, batchCount, timedBatchCounter);
+                    batchCount = 0;
+                }
+            }
+            if (batchCount > 0) {  // don't leave the last messages uncommitted
+                commit(session, batchCount, timedBatchCounter);
+            }
+        } catch (JMSException e) {
+            System.out.println("### Caught at producer.send() " + e);
+            isShutdown = true;
+        } catch (InterruptedException e) {
+            // shutting down, the uncommitted batch is rolled back when the session closes
+        }
+    }
+
+    private static void commit(Session session, int batchCount, LongAdder batchCounter) {
+        long start = System.nanoTime();
+        try {
+            session.commit();  // one round trip to the broker for the whole batch
+            commitLatencyStats.recordNanos(System.nanoTime() - start);
+            msgCommittedCounter.add(batchCount);
+            batchCounter.increment();
+        } catch (JMSException e) {  // e.g. TransactionRolledBackException, after a reconnect
+            System.out.println("### Caught at session.commit() " + e);
+            failedCommitCounter.increment();
+            msgRolledBackCounter.add(batchCount);
+        }
+    }
+}
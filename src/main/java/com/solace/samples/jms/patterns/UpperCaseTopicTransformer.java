@@ -0,0 +1,38 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.patterns;
+
+import java.util.List;
+import javax.jms.JMSException;
+
+/**
+ * The default {@link MessageTransformer}: as a silly example of "processing", the outbound payload is the inbound
+ * topic in upper case, and the inbound JMSMessageID is carried over for traceability.
+ */
+public class UpperCaseTopicTransformer implements MessageTransformer {
+
+    @Override
+    public void transform(List<ProcessorMessage> batch) throws JMSException {
+        for (ProcessorMessage message : batch) {
+            message.setText(message.getInboundTopic().toUpperCase());
+            message.setMessageId(message.getInboundMessage().getJMSMessageID());  // populate for traceability
+        }
+    }
+}
@@ -0,0 +1,87 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+/**
+ * An additive-increase, multiplicative-decrease (AIMD) limit, as used by TCP congestion control: while things are
+ * healthy the limit creeps up by a fixed step, and as soon as they aren't it is cut by a factor.  The limit probes
+ * upwards for more throughput, but backs off quickly from overload, and converges on what the system can sustain.
+ * <p>
+ * Not thread-safe for updates, which should come from one (e.g. controlling) thread, but {@link #getLimit()} may be
+ * read from any thread.
+ */
+public final class AimdLimit {
+
+    private final int minLimit;
+    private final int maxLimit;
+    private final int increaseStep;
+    private final double decreaseFactor;
+    private volatile int limit;
+    private volatile long increases = 0;
+    private volatile long decreases = 0;
+
+    /**
+     * @param minLimit the lowest the limit goes, at least 1
+     * @param maxLimit the highest the limit goes
+     * @param initialLimit the starting limit
+     * @param increaseStep how much to add on each healthy sample
+     * @param decreaseFactor what to multiply by on each unhealthy sample, between 0 and 1, e.g. 0.5
+     */
+    public AimdLimit(int minLimit, int maxLimit, int initialLimit, int increaseStep, double decreaseFactor) {
+        if (minLimit < 1 || maxLimit < minLimit || increaseStep < 1 || decreaseFactor <= 0 || decreaseFactor >= 1) {
+            throw new IllegalArgumentException("Invalid AIMD parameters");
+        }
+        this.minLimit = minLimit;
+        this.maxLimit = maxLimit;
+        this.increaseStep = increaseStep;
+        this.decreaseFactor = decreaseFactor;
+        this.limit = Math.max(minLimit, Math.min(maxLimit, initialLimit));
+    }
+
+    /**
+     * Adjusts the limit after observing the system.
+     * @param overloaded true if the last sample showed overload, e.g. latency above target
+     * @param limitReached true if the current limit was actually reached, only then is it useful to raise it
+     */
+    public void update(boolean overloaded, boolean limitReached) {
+        if (overloaded) {
+            limit = Math.max(minLimit, (int)(limit * decreaseFactor));
+            decreases++;
+        } else if (limitReached && limit < maxLimit) {
+            limit = Math.min(maxLimit, limit + increaseStep);
+            increases++;
+        }
+    }
+
+    /** @return the current limit */
+    public int getLimit() {
+        return limit;
+    }
+
+    /** @return the number of times the limit was raised so far */
+    public long getIncreases() {
+        return increases;
+    }
+
+    /** @return the number of times the limit was cut so far */
+    public long getDecreases() {
+        return decreases;
+    }
+}
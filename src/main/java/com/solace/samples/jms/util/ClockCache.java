@@ -0,0 +1,122 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * A bounded cache using the CLOCK eviction policy, an approximation of LRU that is cheaper on a hit: a hit only sets
+ * a "referenced" bit, and eviction sweeps a clock hand over the entries, giving each referenced entry a second
+ * chance.  Hit, miss and eviction counters are kept for monitoring.
+ * <p>
+ * Not thread-safe, except that the counters may be read from another (e.g. reporting) thread.  Where the callers
+ * are sharded by key anyway, use one cache per thread.
+ *
+ * @param <K> the key type
+ * @param <V> the value type
+ */
+public final class ClockCache<K,V> {
+
+    private final Map<K,Integer> slots;
+    private final Object[] keys;
+    private final Object[] values;
+    private final boolean[] referenced;
+    private int size = 0;
+    private int hand = 0;
+    private volatile long hits = 0;       // these are only written by the owning thread
+    private volatile long misses = 0;
+    private volatile long evictions = 0;
+
+    /** @param capacity the maximum number of entries */
+    public ClockCache(int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        slots = new HashMap<>(capacity * 2);
+        keys = new Object[capacity];
+        values = new Object[capacity];
+        referenced = new boolean[capacity];
+    }
+
+    /** @return the cached value, or null on a miss */
+    @SuppressWarnings("unchecked")
+    public V get(K key) {
+        Integer slot = slots.get(key);
+        if (slot == null) {
+            misses++;
+            return null;
+        }
+        hits++;
+        referenced[slot] = true;
+        return (V)values[slot];
+    }
+
+    /**
+     * Adds an entry (after a miss), evicting one if the cache is full.
+     * @return the evicted value, e.g. to close it, or null if none was evicted
+     */
+    @SuppressWarnings("unchecked")
+    public V put(K key, V value) {
+        Integer existing = slots.get(key);
+        if (existing != null) {
+            values[existing] = value;
+            referenced[existing] = true;
+            return null;
+        }
+        V evicted = null;
+        int slot;
+        if (size < keys.length) {
+            slot = size++;
+        } else {
+            while (referenced[hand]) {  // second chance for recently used entries
+                referenced[hand] = false;
+                hand = (hand + 1) % keys.length;
+            }
+            slot = hand;
+            hand = (hand + 1) % keys.length;
+            slots.remove(keys[slot]);
+            evicted = (V)values[slot];
+            evictions++;
+        }
+        keys[slot] = key;
+        values[slot] = value;
+        referenced[slot] = false;
+        slots.put(key, slot);
+        return evicted;
+    }
+
+    /** @return the number of entries */
+    public int size() {
+        return size;
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    public long getEvictions() {
+        return evictions;
+    }
+}
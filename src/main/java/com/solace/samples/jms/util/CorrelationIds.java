@@ -0,0 +1,96 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Compact, monotonic correlation IDs for request/reply, of the form {@code <prefix><16 hex digits>}, where the prefix
+ * identifies the requestor session and the digits are a counter.
+ * <p>
+ * Requests are tracked by the numeric part, e.g. in a {@link LongObjectHashMap}, and a reply's correlation ID is
+ * parsed back to that number with no regex and no allocation; a leading {@code "ID:"}, which some JMS providers
+ * (e.g. Apache Qpid) add, is skipped.  Compared with {@code UUID.randomUUID().toString()} per request and
+ * {@code replaceAll("ID:", "")} per reply, this takes {@code SecureRandom} and a regex compilation off the hot path.
+ * Thread-safe.
+ */
+public final class CorrelationIds {
+
+    /** returned by {@link #parse} for a correlation ID that isn't one of ours */
+    public static final long NOT_OURS = -1;
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int COUNTER_DIGITS = 16;
+    private static final String PROVIDER_PREFIX = "ID:";
+
+    private final String prefix;
+    private final AtomicLong counter = new AtomicLong();
+
+    /** Uses a random 8 hex digit prefix, unique enough to tell requestors apart. */
+    public CorrelationIds() {
+        this(String.format("%08x-", ThreadLocalRandom.current().nextInt()));
+    }
+
+    /** @param prefix identifies this requestor; must be unique across requestors sharing a reply destination */
+    public CorrelationIds(String prefix) {
+        this.prefix = prefix;
+    }
+
+    /** @return the next request ID, 0 or greater */
+    public long nextId() {
+        return counter.getAndIncrement();
+    }
+
+    /** @return the correlation ID String for a request ID */
+    public String format(long id) {
+        char[] chars = new char[prefix.length() + COUNTER_DIGITS];
+        prefix.getChars(0, prefix.length(), chars, 0);
+        for (int i = chars.length - 1; i >= prefix.length(); i--) {
+            chars[i] = HEX_DIGITS[(int)(id & 0xF)];
+            id >>>= 4;
+        }
+        return new String(chars);
+    }
+
+    /**
+     * @param correlationId a reply's JMSCorrelationID, may be null
+     * @return the request ID, or {@link #NOT_OURS} if it wasn't created by this instance
+     */
+    public long parse(String correlationId) {
+        if (correlationId == null) {
+            return NOT_OURS;
+        }
+        int start = correlationId.startsWith(PROVIDER_PREFIX) ? PROVIDER_PREFIX.length() : 0;
+        if (correlationId.length() - start != prefix.length() + COUNTER_DIGITS
+                || !correlationId.startsWith(prefix, start)) {
+            return NOT_OURS;
+        }
+        long id = 0;
+        for (int i = start + prefix.length(); i < correlationId.length(); i++) {
+            int digit = Character.digit(correlationId.charAt(i), 16);
+            if (digit < 0) {
+                return NOT_OURS;
+            }
+            id = (id << 4) | digit;
+        }
+        return id;
+    }
+}
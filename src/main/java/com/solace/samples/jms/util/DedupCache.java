@@ -0,0 +1,192 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+/**
+ * A set of recently seen message keys, for an idempotent consumer to recognise redelivered messages, bounded both
+ * by size and by age (the dedup window).
+ * <p>
+ * Keys are 64-bit hashes (see {@link #hash(CharSequence)}, e.g. of the JMSMessageID or an application key), held in
+ * primitive arrays: an open-addressing hash table for lookups, and a ring in insertion order, with the time each key
+ * was added, for eviction.  Besides the arrays, nothing is allocated, so the keys cost no garbage collection work, and
+ * 32 to 48 bytes each: 16 in the ring, and 16 to 32 in the table, whose size is rounded up to a power of two.  Keys
+ * older than the window, or the oldest keys once the set is full, are evicted as new keys are added.  With 64-bit
+ * hashes two different keys collide rarely (about 1 in 10^4 for 10^8 keys in the window), and a collision makes a
+ * new message look like a duplicate.
+ * <p>
+ * Not thread-safe, except that the counters may be read from another (e.g. reporting) thread.
+ */
+public final class DedupCache {
+
+    private static final long EMPTY = 0;  // marks a free table slot; a key hashing to 0 is stored as 1
+
+    private final long[] table;   // open addressing, linear probing
+    private final int tableMask;
+    private final long[] ringKeys;    // keys in insertion order, for eviction
+    private final long[] ringTimes;   // when each was added, in ms
+    private final long windowMillis;
+    private int ringHead = 0;  // oldest entry
+    private int size = 0;
+    private volatile long hits = 0;         // these are only written by the owning thread
+    private volatile long misses = 0;
+    private volatile long evictions = 0;    // evicted because the set was full
+    private volatile long expirations = 0;  // evicted because they were older than the window
+
+    /**
+     * @param maxSize the most keys held at once
+     * @param windowMillis how long a key is remembered, unless evicted sooner because the set is full
+     */
+    public DedupCache(int maxSize, long windowMillis) {
+        if (maxSize < 1 || maxSize > (1 << 29)) {
+            throw new IllegalArgumentException("Invalid max size: " + maxSize);
+        }
+        int tableSize = Integer.highestOneBit(maxSize * 2 - 1) << 1;  // load factor <= 0.5
+        table = new long[tableSize];
+        tableMask = tableSize - 1;
+        ringKeys = new long[maxSize];
+        ringTimes = new long[maxSize];
+        this.windowMillis = windowMillis;
+    }
+
+    /**
+     * @param key a key hash
+     * @param nowMillis the current time, e.g. {@link System#currentTimeMillis()}
+     * @return true if the key was added within the window, i.e. the message is a duplicate
+     */
+    public boolean contains(long key, long nowMillis) {
+        expire(nowMillis);
+        if (find(storedKey(key)) >= 0) {
+            hits++;
+            return true;
+        }
+        misses++;
+        return false;
+    }
+
+    /**
+     * Remembers a key, e.g. once its message has been processed.  Adding a key that is already present does nothing.
+     * @param key a key hash
+     * @param nowMillis the current time, e.g. {@link System#currentTimeMillis()}
+     */
+    public void add(long key, long nowMillis) {
+        expire(nowMillis);
+        long stored = storedKey(key);
+        if (find(stored) >= 0) {
+            return;
+        }
+        if (size == ringKeys.length) {  // full, evict the oldest
+            removeOldest();
+            evictions++;
+        }
+        int i = slot(stored);
+        while (table[i] != EMPTY) {
+            i = (i + 1) & tableMask;
+        }
+        table[i] = stored;
+        int tail = (ringHead + size) % ringKeys.length;
+        ringKeys[tail] = stored;
+        ringTimes[tail] = nowMillis;
+        size++;
+    }
+
+    /** @return the number of keys held */
+    public int size() {
+        return size;
+    }
+
+    /** @return the number of lookups that found the key (duplicates) so far */
+    public long getHits() {
+        return hits;
+    }
+
+    /** @return the number of lookups that didn't find the key so far */
+    public long getMisses() {
+        return misses;
+    }
+
+    /** @return the number of keys evicted before the end of the window, because the set was full, so far */
+    public long getEvictions() {
+        return evictions;
+    }
+
+    /** @return the number of keys evicted at the end of the window so far */
+    public long getExpirations() {
+        return expirations;
+    }
+
+    /**
+     * @return a 64-bit hash of a key (FNV-1a, then a final mix so that similar keys, such as sequential message IDs,
+     *     spread across the table)
+     */
+    public static long hash(CharSequence key) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < key.length(); i++) {
+            hash = (hash ^ key.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;  // MurmurHash3's fmix64
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private void expire(long nowMillis) {
+        long oldestAllowed = nowMillis - windowMillis;
+        while (size > 0 && ringTimes[ringHead] < oldestAllowed) {
+            removeOldest();
+            expirations++;
+        }
+    }
+
+    private void removeOldest() {
+        int i = find(ringKeys[ringHead]);
+        // shift back any following entries that probed past this slot, so lookups never stop at a false gap
+        int gap = i;
+        for (int j = (i + 1) & tableMask; table[j] != EMPTY; j = (j + 1) & tableMask) {
+            int home = slot(table[j]);
+            if (((j - home) & tableMask) >= ((j - gap) & tableMask)) {  // the gap is between its home slot and j
+                table[gap] = table[j];
+                gap = j;
+            }
+        }
+        table[gap] = EMPTY;
+        ringHead = (ringHead + 1) % ringKeys.length;
+        size--;
+    }
+
+    /** @return the table slot holding the key, or -1 */
+    private int find(long stored) {
+        for (int i = slot(stored); table[i] != EMPTY; i = (i + 1) & tableMask) {
+            if (table[i] == stored) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private static long storedKey(long key) {
+        return key == EMPTY ? 1 : key;
+    }
+
+    private int slot(long key) {
+        return (int)(key ^ (key >>> 32)) & tableMask;  // the keys are already well-mixed hashes
+    }
+}
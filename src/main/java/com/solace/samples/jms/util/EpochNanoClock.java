@@ -0,0 +1,57 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.time.Instant;
+
+/**
+ * A wall-clock time source with nanosecond resolution, for timestamps that are compared across JVMs.
+ * <p>
+ * {@link System#currentTimeMillis()} is too coarse for one-way latency, and {@link System#nanoTime()} has no
+ * meaning outside the JVM that read it.  This clock reads {@link Instant#now()} once, then advances it with
+ * {@code nanoTime()}.  One-way latency between hosts is only as accurate as the clock synchronization (e.g. PTP)
+ * between them; between processes on one host it is accurate to a few microseconds.
+ */
+public final class EpochNanoClock {
+
+    private static final long BASE_NANO_TIME;
+    private static final long BASE_EPOCH_NANOS;
+
+    static {
+        Instant now = Instant.now();
+        BASE_NANO_TIME = System.nanoTime();
+        BASE_EPOCH_NANOS = now.getEpochSecond() * 1_000_000_000L + now.getNano();
+    }
+
+    private EpochNanoClock() {}
+
+    /** @return the current time, in nanoseconds since the epoch */
+    public static long now() {
+        return fromNanoTime(System.nanoTime());
+    }
+
+    /**
+     * @param nanoTime a value previously read from {@link System#nanoTime()} in this JVM
+     * @return the same instant, in nanoseconds since the epoch
+     */
+    public static long fromNanoTime(long nanoTime) {
+        return BASE_EPOCH_NANOS + (nanoTime - BASE_NANO_TIME);
+    }
+}
@@ -0,0 +1,208 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A timer for large numbers of timeouts that are almost always cancelled before they fire, e.g. one per request in
+ * flight.  Timeouts are hashed into the buckets of a wheel by expiry tick, so scheduling and cancelling are O(1)
+ * (a queue append) instead of the O(log n) of a {@code ScheduledThreadPoolExecutor}, at the cost of firing up to one
+ * tick late.  A single daemon thread advances the wheel and runs expired tasks, so tasks must be short.
+ */
+public final class HashedWheelTimer implements AutoCloseable {
+
+    private final long tickNanos;
+    private final int mask;
+    private final Bucket[] wheel;
+    private final Queue<Timeout> scheduled = new ConcurrentLinkedQueue<>();  // not yet in the wheel
+    private final Queue<Timeout> cancelled = new ConcurrentLinkedQueue<>();  // to be unlinked from the wheel
+    private final Thread thread;
+    private final long startNanos = System.nanoTime();
+    private volatile boolean isShutdown = false;
+
+    /**
+     * @param name a name for the timer thread
+     * @param tickDuration the timer resolution
+     * @param unit the unit of tickDuration
+     * @param wheelSize the number of buckets, rounded up to the next power of 2; more buckets than
+     *     (longest timeout / tick duration) means each timeout is looked at only once, when it expires
+     */
+    public HashedWheelTimer(String name, long tickDuration, TimeUnit unit, int wheelSize) {
+        if (tickDuration <= 0 || wheelSize < 1 || wheelSize > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid tick duration or wheel size");
+        }
+        tickNanos = unit.toNanos(tickDuration);
+        int size = Integer.highestOneBit(wheelSize);
+        if (size < wheelSize) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        wheel = new Bucket[size];
+        for (int i = 0; i < size; i++) {
+            wheel[i] = new Bucket();
+        }
+        thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedules a task to run once, on the timer thread, after a delay, unless cancelled first.
+     * @return a handle to cancel the timeout with
+     */
+    public Timeout newTimeout(Runnable task, long delay, TimeUnit unit) {
+        Timeout timeout = new Timeout(task, System.nanoTime() - startNanos + unit.toNanos(delay));
+        scheduled.add(timeout);
+        return timeout;
+    }
+
+    /** Stops the timer thread; timeouts not yet expired never run. */
+    @Override
+    public void close() {
+        isShutdown = true;
+        LockSupport.unpark(thread);
+    }
+
+    private void run() {
+        long tick = 0;
+        while (!isShutdown) {
+            long deadline = (tick + 1) * tickNanos;
+            long sleepNanos;
+            while ((sleepNanos = deadline - (System.nanoTime() - startNanos)) > 0 && !isShutdown) {
+                LockSupport.parkNanos(sleepNanos);
+            }
+            unlinkCancelled();
+            addScheduled(tick);
+            wheel[(int)(tick & mask)].expire(tick);
+            tick++;
+        }
+    }
+
+    private void unlinkCancelled() {
+        Timeout timeout;
+        while ((timeout = cancelled.poll()) != null) {
+            if (timeout.bucket != null) {
+                timeout.bucket.remove(timeout);
+            }
+        }
+    }
+
+    private void addScheduled(long currentTick) {
+        Timeout timeout;
+        while ((timeout = scheduled.poll()) != null) {
+            if (timeout.state.get() != Timeout.PENDING) {
+                continue;  // cancelled before it even got into the wheel
+            }
+            // round up, so a timeout never fires early; and never schedule in the past
+            long expiryTick = Math.max(currentTick, (timeout.deadlineNanos + tickNanos - 1) / tickNanos);
+            timeout.expiryTick = expiryTick;
+            wheel[(int)(expiryTick & mask)].add(timeout);
+        }
+    }
+
+    /** A scheduled task. */
+    public final class Timeout {
+
+        private static final int PENDING = 0;
+        private static final int CANCELLED = 1;
+        private static final int EXPIRED = 2;
+
+        private final Runnable task;
+        private final long deadlineNanos;  // relative to startNanos
+        private final AtomicInteger state = new AtomicInteger(PENDING);
+        // only used by the timer thread
+        private long expiryTick;
+        private Bucket bucket;
+        private Timeout prev;
+        private Timeout next;
+
+        private Timeout(Runnable task, long deadlineNanos) {
+            this.task = task;
+            this.deadlineNanos = deadlineNanos;
+        }
+
+        /** @return true if cancelled, false if the task already ran (or is running) or was already cancelled */
+        public boolean cancel() {
+            if (state.compareAndSet(PENDING, CANCELLED)) {
+                cancelled.add(this);  // so it doesn't stay in the wheel until its expiry
+                return true;
+            }
+            return false;
+        }
+    }
+
+    /** A doubly-linked list of timeouts, only used by the timer thread. */
+    private static final class Bucket {
+
+        private Timeout head;
+        private Timeout tail;
+
+        private void add(Timeout timeout) {
+            timeout.bucket = this;
+            timeout.prev = tail;
+            if (tail == null) {
+                head = timeout;
+            } else {
+                tail.next = timeout;
+            }
+            tail = timeout;
+        }
+
+        private void remove(Timeout timeout) {
+            if (timeout.prev == null) {
+                head = timeout.next;
+            } else {
+                timeout.prev.next = timeout.next;
+            }
+            if (timeout.next == null) {
+                tail = timeout.prev;
+            } else {
+                timeout.next.prev = timeout.prev;
+            }
+            timeout.bucket = null;
+            timeout.prev = null;
+            timeout.next = null;
+        }
+
+        /** runs the timeouts due at this tick, leaving the ones due in later rotations of the wheel */
+        private void expire(long tick) {
+            Timeout timeout = head;
+            while (timeout != null) {
+                Timeout next = timeout.next;
+                if (timeout.expiryTick <= tick) {
+                    remove(timeout);
+                    if (timeout.state.compareAndSet(Timeout.PENDING, Timeout.EXPIRED)) {
+                        try {
+                            timeout.task.run();
+                        } catch (RuntimeException e) {
+                            System.out.println("### Caught in timeout task: " + e);
+                        }
+                    }
+                }
+                timeout = next;
+            }
+        }
+    }
+}
@@ -0,0 +1,402 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.Deque;
+import java.util.concurrent.ConcurrentLinkedDeque;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAccumulator;
+import java.util.concurrent.atomic.LongAdder;
+import javax.jms.Connection;
+import javax.jms.ConnectionFactory;
+import javax.jms.Destination;
+import javax.jms.JMSException;
+import javax.jms.MessageProducer;
+import javax.jms.ResourceAllocationException;
+import javax.jms.Session;
+
+/**
+ * A bounded pool of Connections and Sessions over a ConnectionFactory (e.g. one looked up from JNDI), so that a
+ * service sending from many threads doesn't pay for a new Connection and Session per request, nor share one Session
+ * between threads (a Session is single-threaded).
+ * <p>
+ * A thread {@link #borrow}s a {@link PooledSession}, uses it, and closes it to give it back.  Sessions are created as
+ * needed, up to {@code maxSessions}, spread over up to {@code maxConnections} Connections (each has its own I/O
+ * thread), and reused most recently used first, so a lightly loaded pool keeps using the same few.  Each session
+ * caches a producer per destination, so a send to a destination it has sent to before creates nothing.  When the
+ * pool is exhausted, borrowing waits for a session to be given back, up to a timeout.  A Connection whose
+ * ExceptionListener fires is replaced, and its sessions are discarded as they're borrowed or given back.
+ * <p>
+ * For monitoring, it counts borrows, how many had to wait and for how long, timeouts, and the peak number of sessions
+ * in use, which against {@code maxSessions} shows how close the pool is to its limit.
+ */
+public final class JmsSessionPool implements AutoCloseable {
+
+    private final ConnectionFactory connectionFactory;
+    private final PooledConnection[] connections;  // created as needed, guarded by this
+    private final int maxSessions;
+    private final int producerCacheSize;
+    private final Semaphore availableSessions;     // permits for sessions not borrowed, idle or not yet created
+    private final Deque<PooledSession> idleSessions = new ConcurrentLinkedDeque<>();  // most recently used first
+    private final LongAdder borrowCounter = new LongAdder();
+    private final LongAdder waitedCounter = new LongAdder();      // borrows that had to wait
+    private final LongAdder borrowWaitNanos = new LongAdder();
+    private final LongAccumulator maxBorrowWaitNanos = new LongAccumulator(Long::max, 0);
+    private final LongAdder timeoutCounter = new LongAdder();
+    private final LongAccumulator peakInUse = new LongAccumulator(Long::max, 0);
+    private final LongAdder sessionsCreatedCounter = new LongAdder();
+    private final LongAdder connectionsCreatedCounter = new LongAdder();
+    private volatile boolean closed = false;
+
+    /**
+     * @param connectionFactory creates the Connections
+     * @param maxConnections the most Connections to open
+     * @param maxSessions the most Sessions to create, over all the Connections
+     * @param producerCacheSize the most producers (i.e. destinations) each Session keeps
+     */
+    public JmsSessionPool(ConnectionFactory connectionFactory, int maxConnections, int maxSessions,
+            int producerCacheSize) {
+        if (maxConnections < 1 || maxSessions < 1 || producerCacheSize < 1) {
+            throw new IllegalArgumentException("Invalid pool size: " + maxConnections + " connections, "
+                    + maxSessions + " sessions, " + producerCacheSize + " producers");
+        }
+        this.connectionFactory = connectionFactory;
+        connections = new PooledConnection[maxConnections];
+        this.maxSessions = maxSessions;
+        this.producerCacheSize = producerCacheSize;
+        availableSessions = new Semaphore(maxSessions);
+    }
+
+    /**
+     * Borrows a session, creating it (and its Connection) if there isn't an idle one, and waiting if all the sessions
+     * are borrowed.  Close it to give it back.
+     * @param timeout how long to wait for a session to be given back
+     * @param unit the timeout's unit
+     * @return a session, only to be used by the calling thread until it's closed
+     * @throws ResourceAllocationException if no session was given back in time
+     * @throws JMSException if a Connection or Session can't be created
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public PooledSession borrow(long timeout, TimeUnit unit) throws JMSException, InterruptedException {
+        if (closed) {
+            throw new IllegalStateException("Pool is closed");
+        }
+        if (!availableSessions.tryAcquire()) {  // exhausted, wait for one to be given back
+            long waitStart = System.nanoTime();
+            boolean acquired = availableSessions.tryAcquire(timeout, unit);
+            long waitedNanos = System.nanoTime() - waitStart;
+            waitedCounter.increment();
+            borrowWaitNanos.add(waitedNanos);
+            maxBorrowWaitNanos.accumulate(waitedNanos);
+            if (!acquired) {
+                timeoutCounter.increment();
+                throw new ResourceAllocationException("No pooled session given back within "
+                        + unit.toMillis(timeout) + " ms, all " + maxSessions + " are in use");
+            }
+        }
+        borrowCounter.increment();
+        peakInUse.accumulate(getInUseCount());
+        try {
+            PooledSession session;
+            while ((session = idleSessions.pollFirst()) != null) {
+                if (!session.connection.broken) {
+                    session.borrowed = true;
+                    return session;
+                }
+                session.discard();  // its connection has failed
+            }
+            session = createSession();
+            session.borrowed = true;
+            return session;
+        } catch (JMSException | InterruptedException | RuntimeException e) {
+            availableSessions.release();
+            throw e;
+        }
+    }
+
+    /** @return the number of sessions borrowed now */
+    public int getInUseCount() {
+        return maxSessions - availableSessions.availablePermits();
+    }
+
+    /** @return the most sessions there can be */
+    public int getMaxSessions() {
+        return maxSessions;
+    }
+
+    /** @return the most sessions borrowed at once since the previous call */
+    public long getAndResetPeakInUse() {
+        return peakInUse.getThenReset();
+    }
+
+    /** @return the number of sessions borrowed since the previous call */
+    public long getAndResetBorrowCount() {
+        return borrowCounter.sumThenReset();
+    }
+
+    /** @return how many borrows had to wait for a session to be given back since the previous call */
+    public long getAndResetWaitedCount() {
+        return waitedCounter.sumThenReset();
+    }
+
+    /** @return the total time borrows waited since the previous call, in ns */
+    public long getAndResetBorrowWaitNanos() {
+        return borrowWaitNanos.sumThenReset();
+    }
+
+    /** @return the longest a borrow waited since the previous call, in ns */
+    public long getAndResetMaxBorrowWaitNanos() {
+        return maxBorrowWaitNanos.getThenReset();
+    }
+
+    /** @return how many borrows timed out since the previous call */
+    public long getAndResetTimeoutCount() {
+        return timeoutCounter.sumThenReset();
+    }
+
+    /** @return the number of sessions created since the previous call */
+    public long getAndResetSessionsCreated() {
+        return sessionsCreatedCounter.sumThenReset();
+    }
+
+    /** @return the number of Connections opened since the previous call */
+    public long getAndResetConnectionsCreated() {
+        return connectionsCreatedCounter.sumThenReset();
+    }
+
+    /**
+     * Closes the Connections, and so their sessions; sessions still borrowed fail from now on, and a Connection still
+     * being opened is closed once it is.
+     */
+    @Override
+    public synchronized void close() {
+        closed = true;
+        for (int i = 0; i < connections.length; i++) {
+            if (connections[i] != null) {
+                connections[i].closeQuietly();
+                connections[i] = null;
+            }
+        }
+        idleSessions.clear();
+        notifyAll();  // borrowers waiting for a Connection to be opened
+    }
+
+    /**
+     * Creates a session on the Connection with the fewest, opening a new Connection first if there's a free (or
+     * broken) slot for one.  Connecting can be slow (e.g. retrying), so it's done outside the lock: the slot is
+     * reserved under the lock, and the Connection published to it under the lock once it's open.
+     */
+    private PooledSession createSession() throws JMSException, InterruptedException {
+        PooledConnection connection;
+        PooledConnection replaced = null;  // a broken Connection in the slot being reused
+        boolean connect = false;
+        synchronized (this) {
+            while (true) {
+                if (closed) {
+                    throw new IllegalStateException("Pool is closed");
+                }
+                int free = -1;   // spread the sessions, so open more Connections before doubling up
+                int least = -1;  // the open Connection with the fewest sessions
+                for (int i = 0; i < connections.length; i++) {
+                    if (connections[i] == null || connections[i].broken) {
+                        free = i;
+                        break;
+                    }
+                    if (connections[i].connection != null  // not still being opened by another borrower
+                            && (least < 0 || connections[i].sessionCount < connections[least].sessionCount)) {
+                        least = i;
+                    }
+                }
+                if (free >= 0) {
+                    replaced = connections[free];  // its sessions are discarded as they're seen
+                    connection = new PooledConnection();
+                    connections[free] = connection;
+                    connect = true;
+                    break;
+                }
+                if (least >= 0) {
+                    connection = connections[least];
+                    break;
+                }
+                wait();  // every Connection is still being opened, by other borrowers
+            }
+            connection.sessionCount++;
+        }
+        if (replaced != null) {
+            replaced.closeQuietly();
+        }
+        if (connect) {
+            open(connection);
+        }
+        try {
+            Session session = connection.connection.createSession(false, Session.AUTO_ACKNOWLEDGE);
+            sessionsCreatedCounter.increment();
+            return new PooledSession(connection, session);
+        } catch (JMSException | RuntimeException e) {
+            synchronized (this) {
+                connection.sessionCount--;
+            }
+            throw e;
+        }
+    }
+
+    /** opens the Connection for a reserved slot, outside the lock, then publishes it, or frees the slot */
+    private void open(PooledConnection pooled) throws JMSException {
+        Connection connection = null;
+        try {
+            connection = connectionFactory.createConnection();
+            connection.setExceptionListener(jmsException -> {  // ExceptionListener.onException()
+                System.out.println("### Pooled Connection ExceptionListener caught this: " + jmsException);
+                pooled.broken = true;  // replace it, and discard its sessions
+            });
+            connection.start();  // in case sessions are used to receive, e.g. replies
+        } catch (JMSException | RuntimeException e) {
+            if (connection != null) {
+                PooledConnection.closeQuietly(connection);
+            }
+            synchronized (this) {
+                int slot = indexOf(pooled);
+                if (slot >= 0) {
+                    connections[slot] = null;  // free the slot for the next borrower to try
+                }
+                notifyAll();
+            }
+            throw e;
+        }
+        synchronized (this) {
+            pooled.connection = connection;
+            notifyAll();  // borrowers waiting for it
+            if (indexOf(pooled) >= 0) {
+                connectionsCreatedCounter.increment();
+                return;
+            }
+        }
+        // the pool was closed, or the Connection failed and its slot was reused, while it was being opened
+        PooledConnection.closeQuietly(connection);
+        if (closed) {
+            throw new IllegalStateException("Pool is closed");
+        }
+        throw new JMSException("Pooled Connection failed while it was being opened");
+    }
+
+    /** @return the connection's slot, or -1 if it isn't in the pool (any more) */
+    private int indexOf(PooledConnection pooled) {  // guarded by this
+        for (int i = 0; i < connections.length; i++) {
+            if (connections[i] == pooled) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    /** a pooled Connection, once it's open, and how many sessions it has */
+    private static final class PooledConnection {
+        private volatile Connection connection;  // null while it's being opened
+        private int sessionCount = 0;  // guarded by the pool
+        private volatile boolean broken = false;
+
+        private void closeQuietly() {
+            Connection connection = this.connection;
+            if (connection != null) {  // else it's closed once it's opened
+                closeQuietly(connection);
+            }
+        }
+
+        private static void closeQuietly(Connection connection) {
+            try {
+                connection.close();
+            } catch (JMSException e) {
+                // it's broken anyway, or we're shutting down
+            }
+        }
+    }
+
+    /**
+     * A borrowed Session with its cached producers; only to be used by the thread that borrowed it, and closed to
+     * give it back to the pool.  The producers are shared with later borrowers, so set any options on them the same
+     * way each time, or pass them to {@code send()}.
+     */
+    public final class PooledSession implements AutoCloseable {
+        private final PooledConnection connection;
+        private final Session session;
+        private final ClockCache<Destination,MessageProducer> producers = new ClockCache<>(producerCacheSize);
+        private boolean borrowed = false;
+        private boolean invalid = false;
+
+        private PooledSession(PooledConnection connection, Session session) {
+            this.connection = connection;
+            this.session = session;
+        }
+
+        /** @return the Session, e.g. to create messages */
+        public Session getSession() {
+            return session;
+        }
+
+        /**
+         * @param destination where to send; equal destinations (e.g. the same one looked up from JNDI) share a producer
+         * @return the session's cached producer for the destination, created if need be; don't close it
+         * @throws JMSException if the producer can't be created
+         */
+        public MessageProducer getProducer(Destination destination) throws JMSException {
+            MessageProducer producer = producers.get(destination);
+            if (producer == null) {
+                producer = session.createProducer(destination);
+                MessageProducer evicted = producers.put(destination, producer);
+                if (evicted != null) {
+                    evicted.close();
+                }
+            }
+            return producer;
+        }
+
+        /** Marks the session as not to be reused, e.g. after a JMSException; it's closed when given back. */
+        public void invalidate() {
+            invalid = true;
+        }
+
+        /** Gives the session back to the pool. */
+        @Override
+        public void close() {
+            if (!borrowed) {
+                return;  // already given back
+            }
+            borrowed = false;
+            if (invalid || connection.broken || closed) {
+                discard();
+            } else {
+                idleSessions.offerFirst(this);
+            }
+            availableSessions.release();
+        }
+
+        private void discard() {
+            try {
+                session.close();  // and its producers
+            } catch (JMSException e) {
+                // its connection is probably gone
+            }
+            synchronized (JmsSessionPool.this) {
+                connection.sessionCount--;
+            }
+        }
+    }
+}
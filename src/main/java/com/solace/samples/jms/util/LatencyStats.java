@@ -0,0 +1,99 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.io.File;
+import java.io.FileNotFoundException;
+import java.util.concurrent.TimeUnit;
+import org.HdrHistogram.Histogram;
+import org.HdrHistogram.HistogramLogWriter;
+import org.HdrHistogram.Recorder;
+
+/**
+ * Records latencies into an HdrHistogram {@link Recorder}, and periodically summarizes (and optionally logs) them.
+ * <p>
+ * Recording is wait-free and allocation-free, and can be done from any number of threads, while a single reporting
+ * thread calls {@link #intervalSummary()} to take the latencies recorded since its previous call.  If a log file is
+ * given, each interval is also appended to it in the standard {@code .hlog} format, for later analysis with tools
+ * such as HistogramLogAnalyzer.
+ */
+public final class LatencyStats implements AutoCloseable {
+
+    private final Recorder recorder = new Recorder(3);  // auto-resizing, 3 significant digits
+    private final HistogramLogWriter logWriter;
+    private Histogram intervalHistogram = null;  // recycled between intervals
+
+    /**
+     * @param hlogFileName file to write the interval histograms to, or null for no log file
+     * @throws FileNotFoundException if the log file can't be created
+     */
+    public LatencyStats(String hlogFileName) throws FileNotFoundException {
+        if (hlogFileName != null && !hlogFileName.isEmpty()) {
+            logWriter = new HistogramLogWriter(new File(hlogFileName));
+            long now = System.currentTimeMillis();
+            logWriter.outputLogFormatVersion();
+            logWriter.outputStartTime(now);
+            logWriter.setBaseTime(now);
+            logWriter.outputLegend();
+        } else {
+            logWriter = null;
+        }
+    }
+
+    /** Records one latency, in nanoseconds.  Negative values (e.g. from clock skew between hosts) count as 0. */
+    public void recordNanos(long latencyNanos) {
+        recorder.recordValue(Math.max(0, latencyNanos));
+    }
+
+    /** @return the latencies recorded since the previous call, which are also appended to the log file (if any) */
+    public Histogram takeInterval() {
+        intervalHistogram = recorder.getIntervalHistogram(intervalHistogram);
+        if (logWriter != null) {
+            logWriter.outputIntervalHistogram(intervalHistogram);
+        }
+        return intervalHistogram;
+    }
+
+    /** @return a one-line summary of the latencies recorded since the previous call, see {@link #takeInterval()} */
+    public String intervalSummary() {
+        return summary(takeInterval());
+    }
+
+    /** @return a one-line summary of a histogram of latencies in nanoseconds, e.g. one accumulated over a run */
+    public static String summary(Histogram histogram) {
+        if (histogram.getTotalCount() == 0) {
+            return "no samples";
+        }
+        return String.format("p50 %,d us, p99 %,d us, p99.9 %,d us, max %,d us",
+                toMicros(histogram.getValueAtPercentile(50)), toMicros(histogram.getValueAtPercentile(99)),
+                toMicros(histogram.getValueAtPercentile(99.9)), toMicros(histogram.getMaxValue()));
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+
+    @Override
+    public void close() {
+        if (logWriter != null) {
+            logWriter.close();
+        }
+    }
+}
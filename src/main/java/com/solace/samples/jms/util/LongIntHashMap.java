@@ -0,0 +1,108 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.Arrays;
+
+/**
+ * An open-addressing hash map from primitive {@code long} keys to non-negative {@code int} values, with linear
+ * probing.  Unlike a {@code HashMap<Long,Integer>}, lookups and updates of existing keys box nothing and allocate
+ * nothing, which matters when it is consulted for every message.  Not thread-safe.
+ */
+public final class LongIntHashMap {
+
+    /** returned by {@link #get} for a missing key */
+    public static final int MISSING = -1;
+
+    private long[] keys;
+    private int[] values;  // MISSING marks an empty slot
+    private int mask;
+    private int size = 0;
+
+    /** @param expectedSize the number of entries to size the map for, it grows as needed */
+    public LongIntHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;  // load factor <= 0.5
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new int[capacity];
+        Arrays.fill(values, MISSING);
+        mask = capacity - 1;
+    }
+
+    /** @return the value for the key, or {@link #MISSING} */
+    public int get(long key) {
+        for (int i = slot(key); ; i = (i + 1) & mask) {
+            if (values[i] == MISSING) {
+                return MISSING;
+            }
+            if (keys[i] == key) {
+                return values[i];
+            }
+        }
+    }
+
+    /**
+     * @param key any long
+     * @param value a value, must be 0 or greater
+     */
+    public void put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("Values must not be negative: " + value);
+        }
+        int i = slot(key);
+        while (values[i] != MISSING && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        if (values[i] == MISSING) {
+            if (++size * 2 > keys.length) {  // grow, then insert into the new table
+                rehash(keys.length * 2);
+                put(key, value);
+                return;
+            }
+            keys[i] = key;
+        }
+        values[i] = value;
+    }
+
+    /** @return the number of entries */
+    public int size() {
+        return size;
+    }
+
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != MISSING) {
+                put(oldKeys[i], oldValues[i]);
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;  // spread the bits (Fibonacci hashing)
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+}
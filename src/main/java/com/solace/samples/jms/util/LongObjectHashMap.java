@@ -0,0 +1,153 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.Arrays;
+import java.util.function.Consumer;
+
+/**
+ * An open-addressing hash map from primitive {@code long} keys to object values, with linear probing.  Unlike a
+ * {@code HashMap<Long,V>} or {@code ConcurrentHashMap<String,V>}, nothing is boxed and no node is allocated per
+ * entry, and removal shifts entries back instead of leaving tombstones, so a map with constant churn (e.g. requests
+ * in flight) doesn't degrade.  Not thread-safe.
+ *
+ * @param <V> the value type
+ */
+public final class LongObjectHashMap<V> {
+
+    private long[] keys;
+    private Object[] values;  // null marks an empty slot
+    private int mask;
+    private int size = 0;
+
+    /** @param expectedSize the number of entries to size the map for, it grows as needed */
+    public LongObjectHashMap(int expectedSize) {
+        int capacity = Integer.highestOneBit(Math.max(4, expectedSize) * 2 - 1) << 1;  // load factor <= 0.5
+        allocate(capacity);
+    }
+
+    private void allocate(int capacity) {
+        keys = new long[capacity];
+        values = new Object[capacity];
+        mask = capacity - 1;
+    }
+
+    /** @return the value for the key, or null */
+    @SuppressWarnings("unchecked")
+    public V get(long key) {
+        for (int i = slot(key); values[i] != null; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return (V)values[i];
+            }
+        }
+        return null;
+    }
+
+    /**
+     * @param key any long
+     * @param value the value, not null
+     * @return the previous value for the key, or null
+     */
+    @SuppressWarnings("unchecked")
+    public V put(long key, V value) {
+        if (value == null) {
+            throw new IllegalArgumentException("Values must not be null");
+        }
+        int i = slot(key);
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        V previous = (V)values[i];
+        if (previous == null) {
+            if (++size * 2 > keys.length) {  // grow, then insert into the new table
+                rehash(keys.length * 2);
+                return put(key, value);
+            }
+            keys[i] = key;
+        }
+        values[i] = value;
+        return previous;
+    }
+
+    /** @return the removed value, or null if the key wasn't present */
+    @SuppressWarnings("unchecked")
+    public V remove(long key) {
+        int i = slot(key);
+        while (values[i] != null && keys[i] != key) {
+            i = (i + 1) & mask;
+        }
+        V removed = (V)values[i];
+        if (removed == null) {
+            return null;
+        }
+        // shift back any following entries that probed past this slot, so lookups never stop at a false gap
+        int gap = i;
+        for (int j = (i + 1) & mask; values[j] != null; j = (j + 1) & mask) {
+            int home = slot(keys[j]);
+            if (((j - home) & mask) >= ((j - gap) & mask)) {  // the gap is between its home slot and j
+                keys[gap] = keys[j];
+                values[gap] = values[j];
+                gap = j;
+            }
+        }
+        values[gap] = null;
+        size--;
+        return removed;
+    }
+
+    /** Calls the action with each value, in no particular order; the map must not be modified meanwhile. */
+    @SuppressWarnings("unchecked")
+    public void forEachValue(Consumer<? super V> action) {
+        for (Object value : values) {
+            if (value != null) {
+                action.accept((V)value);
+            }
+        }
+    }
+
+    /** Removes all the entries. */
+    public void clear() {
+        Arrays.fill(values, null);
+        size = 0;
+    }
+
+    /** @return the number of entries */
+    public int size() {
+        return size;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void rehash(int capacity) {
+        long[] oldKeys = keys;
+        Object[] oldValues = values;
+        allocate(capacity);
+        size = 0;
+        for (int i = 0; i < oldKeys.length; i++) {
+            if (oldValues[i] != null) {
+                put(oldKeys[i], (V)oldValues[i]);
+            }
+        }
+    }
+
+    private int slot(long key) {
+        long hash = key * 0x9E3779B97F4A7C15L;  // spread the bits (Fibonacci hashing)
+        return (int)(hash ^ (hash >>> 32)) & mask;
+    }
+}
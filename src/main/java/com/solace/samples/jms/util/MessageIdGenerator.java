@@ -0,0 +1,56 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+/**
+ * Generates compact, unique, monotonically increasing message IDs of the form {@code <prefix><16 hex digits>}.
+ * <p>
+ * Unlike {@code UUID.randomUUID().toString()}, which goes through {@code SecureRandom} and builds several
+ * intermediate objects, each ID here is written into a reusable buffer, so the only allocation per ID is the
+ * returned String itself.  Not thread-safe: use one generator (with a distinct prefix) per thread.
+ */
+public final class MessageIdGenerator {
+
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+    private static final int COUNTER_DIGITS = 16;
+
+    private final char[] buffer;
+    private final int prefixLength;
+    private long counter = 0;
+
+    /**
+     * @param prefix identifies the generator, e.g. client name plus thread number; must be unique across generators
+     */
+    public MessageIdGenerator(String prefix) {
+        prefixLength = prefix.length();
+        buffer = new char[prefixLength + COUNTER_DIGITS];
+        prefix.getChars(0, prefixLength, buffer, 0);
+    }
+
+    /** @return the next message ID */
+    public String next() {
+        long value = ++counter;
+        for (int i = buffer.length - 1; i >= prefixLength; i--) {
+            buffer[i] = HEX_DIGITS[(int)(value & 0xF)];
+            value >>>= 4;
+        }
+        return new String(buffer);
+    }
+}
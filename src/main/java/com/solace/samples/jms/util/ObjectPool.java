@@ -0,0 +1,55 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.function.Supplier;
+
+/**
+ * A bounded, lock-free pool of reusable objects, so that objects handed from thread to thread in a pipeline (and
+ * any buffers they own) are recycled instead of allocated per message.  If the pool is empty a new object is
+ * created, and if it is full a released object is left for the garbage collector, so the pool never blocks.
+ *
+ * @param <T> the pooled object type
+ */
+public final class ObjectPool<T> {
+
+    private final RingBuffer<T> free;
+    private final Supplier<T> factory;
+
+    /**
+     * @param capacity the maximum number of idle objects kept; size it for the number in flight at once
+     * @param factory creates a new object when the pool is empty
+     */
+    public ObjectPool(int capacity, Supplier<T> factory) {
+        this.free = new RingBuffer<>(capacity);
+        this.factory = factory;
+    }
+
+    /** @return an idle object, or a new one if there are none */
+    public T acquire() {
+        T object = free.poll();
+        return object != null ? object : factory.get();
+    }
+
+    /** Returns an object to the pool; the caller must not use it afterwards. */
+    public void release(T object) {
+        free.offer(object);
+    }
+}
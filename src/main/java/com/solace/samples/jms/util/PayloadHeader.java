@@ -0,0 +1,125 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+/**
+ * A small binary header written at the start of a performance-test payload, so that a subscriber can measure
+ * one-way latency and detect lost messages.  The layout (big-endian) is:
+ * <pre>
+ *   int  magic           identifies a payload carrying this header
+ *   long sendTimeNanos   intended send time, see {@link EpochNanoClock}
+ *   int  streamId        identifies the publisher (thread) that sent it, random per run
+ *   int  topicIndex      identifies the topic within that publisher
+ *   long sequence        per publisher and topic, starting at 1 with no gaps
+ * </pre>
+ * The header is written into and read from plain {@code byte[]} buffers, so stamping and reading it allocates nothing.
+ */
+public final class PayloadHeader {
+
+    /** the length of the header, in bytes; payloads smaller than this are not stamped */
+    public static final int LENGTH = 4 + 8 + 4 + 4 + 8;
+
+    private static final int MAGIC = 0x534F4C50;  // "SOLP"
+    private static final int SEND_TIME_OFFSET = 4;
+    private static final int STREAM_ID_OFFSET = 12;
+    private static final int TOPIC_INDEX_OFFSET = 16;
+    private static final int SEQUENCE_OFFSET = 20;
+
+    private PayloadHeader() {}
+
+    /** Writes the header into the first {@link #LENGTH} bytes of the payload. */
+    public static void write(byte[] payload, long sendTimeNanos, int streamId, int topicIndex, long sequence) {
+        putInt(payload, 0, MAGIC);
+        putLong(payload, SEND_TIME_OFFSET, sendTimeNanos);
+        putInt(payload, STREAM_ID_OFFSET, streamId);
+        putInt(payload, TOPIC_INDEX_OFFSET, topicIndex);
+        putLong(payload, SEQUENCE_OFFSET, sequence);
+    }
+
+    /**
+     * @param buffer the start of a payload
+     * @param length the number of valid bytes in the buffer
+     * @return true if the buffer starts with a header
+     */
+    public static boolean isPresent(byte[] buffer, int length) {
+        return length >= LENGTH && getInt(buffer, 0) == MAGIC;
+    }
+
+    /** @return the send time, in nanoseconds since the epoch, from a buffer that {@link #isPresent} */
+    public static long readSendTime(byte[] buffer) {
+        return getLong(buffer, SEND_TIME_OFFSET);
+    }
+
+    /**
+     * @return a key that identifies the sequence-numbered stream (publisher and topic) of a buffer that
+     *     {@link #isPresent}
+     */
+    public static long readStreamKey(byte[] buffer) {
+        return ((long)getInt(buffer, STREAM_ID_OFFSET) << 32) | (getInt(buffer, TOPIC_INDEX_OFFSET) & 0xFFFFFFFFL);
+    }
+
+    /**
+     * Replaces the stream ID of a buffer that {@link #isPresent}, e.g. so that a forwarded copy of a message is
+     * tracked as a separate stream from the original, while keeping its send time and sequence number.
+     */
+    public static void rewriteStreamId(byte[] buffer, int streamId) {
+        putInt(buffer, STREAM_ID_OFFSET, streamId);
+    }
+
+    /** @return the stream ID (as written by the publisher) from a buffer that {@link #isPresent} */
+    public static int readStreamId(byte[] buffer) {
+        return getInt(buffer, STREAM_ID_OFFSET);
+    }
+
+    /** @return the sequence number, within its stream, from a buffer that {@link #isPresent} */
+    public static long readSequence(byte[] buffer) {
+        return getLong(buffer, SEQUENCE_OFFSET);
+    }
+
+    private static void putInt(byte[] buffer, int offset, int value) {
+        for (int i = 3; i >= 0; i--) {
+            buffer[offset + i] = (byte)value;
+            value >>>= 8;
+        }
+    }
+
+    private static void putLong(byte[] buffer, int offset, long value) {
+        for (int i = 7; i >= 0; i--) {
+            buffer[offset + i] = (byte)value;
+            value >>>= 8;
+        }
+    }
+
+    private static int getInt(byte[] buffer, int offset) {
+        int value = 0;
+        for (int i = 0; i < 4; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return value;
+    }
+
+    private static long getLong(byte[] buffer, int offset) {
+        long value = 0;
+        for (int i = 0; i < 8; i++) {
+            value = (value << 8) | (buffer[offset + i] & 0xFF);
+        }
+        return value;
+    }
+}
@@ -0,0 +1,101 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * A nanosecond-precision pacer for a single publishing thread.
+ * <p>
+ * Each call to {@link #acquire()} returns the <i>intended</i> send time of the next message, computed from a fixed
+ * schedule that started at {@link #start()}, not from when the previous send completed.  If a send stalls, the
+ * following sends are released immediately until the publisher has caught back up to the schedule, so the target
+ * rate is honoured over time and latency measured from the intended send time does not suffer from coordinated
+ * omission.  Long waits are parked, and the last few microseconds are busy-spun for accuracy.
+ * <p>
+ * Not thread-safe: use one pacer per publishing thread.  Only {@link #getAndResetMaxLagNanos()} may be called from
+ * another (e.g. reporting) thread.
+ */
+public final class RatePacer {
+
+    private static final long SPIN_THRESHOLD_NANOS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final long intervalNanos;  // 0 means unlimited
+    private long nextSendTimeNanos;
+    private volatile long maxLagNanos = 0;  // worst lag behind schedule since last call to getAndResetMaxLagNanos()
+
+    /**
+     * @param msgsPerSec target rate; 0 or less means publish as fast as possible
+     */
+    public RatePacer(double msgsPerSec) {
+        this.intervalNanos = msgsPerSec > 0 ? Math.max(1, Math.round(TimeUnit.SECONDS.toNanos(1) / msgsPerSec)) : 0;
+    }
+
+    /** (Re)starts the schedule at the current time. */
+    public void start() {
+        nextSendTimeNanos = System.nanoTime();
+        maxLagNanos = 0;
+    }
+
+    /**
+     * Waits until the next scheduled send time.
+     * @return the intended send time of this message, in {@link System#nanoTime()} units
+     * @throws InterruptedException if the waiting thread is interrupted
+     */
+    public long acquire() throws InterruptedException {
+        if (intervalNanos == 0) {
+            return System.nanoTime();
+        }
+        final long intendedSendTime = nextSendTimeNanos;
+        nextSendTimeNanos += intervalNanos;
+        long now;
+        while ((now = System.nanoTime()) < intendedSendTime) {
+            long remaining = intendedSendTime - now;
+            if (remaining > SPIN_THRESHOLD_NANOS) {
+                LockSupport.parkNanos(remaining - SPIN_THRESHOLD_NANOS);
+                if (Thread.interrupted()) {
+                    throw new InterruptedException();
+                }
+            } else {
+                Thread.onSpinWait();
+            }
+        }
+        if (now - intendedSendTime > maxLagNanos) {
+            maxLagNanos = now - intendedSendTime;
+        }
+        return intendedSendTime;
+    }
+
+    /**
+     * @return the time the next call to {@link #acquire()} will return at (or now, if unlimited), in
+     *     {@link System#nanoTime()} units, e.g. to do other timed work rather than wait past it
+     */
+    public long getNextSendTime() {
+        return intervalNanos == 0 ? System.nanoTime() : nextSendTimeNanos;
+    }
+
+    /** @return the worst lag behind schedule observed since the previous call, then resets it */
+    public long getAndResetMaxLagNanos() {
+        long lag = maxLagNanos;
+        maxLagNanos = 0;
+        return lag;
+    }
+}
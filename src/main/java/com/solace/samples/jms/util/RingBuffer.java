@@ -0,0 +1,141 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * A bounded, lock-free, multi-producer multi-consumer queue backed by an array (after Dmitry Vyukov's design).
+ * <p>
+ * Each slot carries a sequence number that tells producers and consumers whether it is free or full, so the only
+ * contended operations are a CAS on the head or tail counter, and nothing is allocated per element.  It is used
+ * to hand messages between threads in the samples, e.g. from the JMS dispatcher thread to worker threads, where
+ * a full queue means the downstream stage can't keep up and the upstream stage should slow down.
+ *
+ * @param <E> the element type
+ */
+public final class RingBuffer<E> {
+
+    private final int mask;
+    private final Object[] elements;
+    private final AtomicLongArray sequences;
+    private final AtomicLong tail = new AtomicLong();  // next position to offer into
+    private final AtomicLong head = new AtomicLong();  // next position to poll from
+
+    /**
+     * @param capacity the minimum capacity, rounded up to the next power of 2
+     */
+    public RingBuffer(int capacity) {
+        if (capacity < 1 || capacity > (1 << 30)) {
+            throw new IllegalArgumentException("Invalid capacity: " + capacity);
+        }
+        int size = Integer.highestOneBit(capacity);
+        if (size < capacity) {
+            size <<= 1;
+        }
+        mask = size - 1;
+        elements = new Object[size];
+        sequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            sequences.set(i, i);
+        }
+    }
+
+    /**
+     * @param element the element to add, not null
+     * @return true if added, false if the queue is full
+     */
+    public boolean offer(E element) {
+        long pos = tail.get();
+        while (true) {
+            int index = (int)(pos & mask);
+            long diff = sequences.get(index) - pos;
+            if (diff == 0) {  // slot is free
+                if (tail.compareAndSet(pos, pos + 1)) {
+                    elements[index] = element;
+                    sequences.set(index, pos + 1);  // publish the element to consumers
+                    return true;
+                }
+                pos = tail.get();  // lost the race to another producer
+            } else if (diff < 0) {
+                return false;  // slot still holds an element from the previous lap: full
+            } else {
+                pos = tail.get();
+            }
+        }
+    }
+
+    /**
+     * Adds an element, waiting (spinning, then yielding, then parking) while the queue is full.  This is how
+     * backpressure is applied to the calling thread.
+     * @param element the element to add, not null
+     * @return the number of nanoseconds spent waiting for space, 0 if there was space immediately
+     * @throws InterruptedException if interrupted while waiting
+     */
+    public long put(E element) throws InterruptedException {
+        if (offer(element)) {
+            return 0;
+        }
+        final long start = System.nanoTime();
+        Backoff backoff = new Backoff();
+        while (!offer(element)) {
+            backoff.idle();
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+        return System.nanoTime() - start;
+    }
+
+    /** @return the oldest element, or null if the queue is empty */
+    @SuppressWarnings("unchecked")
+    public E poll() {
+        long pos = head.get();
+        while (true) {
+            int index = (int)(pos & mask);
+            long diff = sequences.get(index) - (pos + 1);
+            if (diff == 0) {  // slot is full
+                if (head.compareAndSet(pos, pos + 1)) {
+                    E element = (E)elements[index];
+                    elements[index] = null;
+                    sequences.set(index, pos + mask + 1);  // free the slot for the next lap
+                    return element;
+                }
+                pos = head.get();  // lost the race to another consumer
+            } else if (diff < 0) {
+                return null;  // empty
+            } else {
+                pos = head.get();
+            }
+        }
+    }
+
+    /** @return the approximate number of elements in the queue */
+    public int size() {
+        long size = tail.get() - head.get();
+        return (int)Math.max(0, Math.min(size, capacity()));
+    }
+
+    /** @return the capacity of the queue */
+    public int capacity() {
+        return mask + 1;
+    }
+}
@@ -0,0 +1,300 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * An append-only log of byte records in memory-mapped segment files, read back in order by one reader, which
+ * commits what it has finished with; fully committed segments are deleted.  Records survive the process dying (the
+ * OS writes the mapped pages back), and on opening the log the records not yet committed are read again, so a
+ * record is read at least once.
+ * <p>
+ * Each segment file starts with an 8 byte header, a magic number and the committed offset, followed by records,
+ * each an int of its length + 1 (so 0 means no record yet, and -1 means the rest is in the next segment) and then
+ * its bytes.  The bytes are written first, then a 0 header after them, and the length last, so a record cut short
+ * by a crash is never read, and neither are the leftovers of one once later records are written over them.
+ * Appending is a copy into the mapped file, so it doesn't wait for the disk, and committing is a single int write.
+ * <p>
+ * {@link #append} is thread-safe; the other methods are only for the one reader thread.  A power failure can lose
+ * records written since the last {@link #force()}.  A file can't be deleted while it is mapped on some platforms
+ * (Windows), and Java only unmaps it once its buffer is garbage collected, so deleting a committed segment that
+ * fails is retried on later commits; until then it takes up disk space.
+ */
+public final class SegmentLog implements AutoCloseable {
+
+    private static final int SEGMENT_MAGIC = 0x53454731;  // "SEG1"
+    private static final int COMMITTED_OFFSET = 4;       // where the header holds the committed offset
+    private static final int HEADER_LENGTH = 8;
+    private static final int END_OF_SEGMENT = -1;
+    private static final String SUFFIX = ".seg";
+
+    private final Path directory;
+    private final int segmentSize;
+    private final int maxRecordLength;  // the most that fits in a new segment, or a bigger record recovered from an older one
+    private final List<Path> pendingDeletes = new ArrayList<>();  // committed segments that couldn't be deleted yet, guarded by this
+    private final ArrayDeque<Segment> segments = new ArrayDeque<>();  // oldest first, guarded by this
+    private long nextSegmentIndex = 0;  // guarded by this
+    private ByteBuffer appendBuffer;    // positioned at the next record, guarded by this
+    private Segment readSegment;        // the rest are only used by the reader
+    private ByteBuffer readBuffer;
+    private volatile long appendedCount = 0;  // only written while holding the lock
+    private volatile long readCount = 0;      // only written by the reader
+
+    /**
+     * Opens the log in a directory, creating it if need be, recovering the records not yet committed.
+     * @param directory where to keep the segment files, not shared with anything else
+     * @param segmentSize the size of each new segment file, which limits the size of a record
+     * @throws IOException if the directory or an existing segment can't be read
+     */
+    public SegmentLog(Path directory, int segmentSize) throws IOException {
+        if (segmentSize < HEADER_LENGTH + 8) {
+            throw new IllegalArgumentException("Invalid segment size: " + segmentSize);
+        }
+        this.directory = directory;
+        this.segmentSize = segmentSize;
+        Files.createDirectories(directory);
+        List<Path> files = new ArrayList<>();
+        try (DirectoryStream<Path> stream = Files.newDirectoryStream(directory, "*" + SUFFIX)) {
+            stream.forEach(files::add);
+        }
+        Collections.sort(files);  // the names are zero-padded indexes
+        boolean lastEnded = true;
+        int maxRecovered = 0;
+        for (int i = 0; i < files.size(); i++) {
+            Path file = files.get(i);
+            String name = file.getFileName().toString();
+            long index = Long.parseLong(name.substring(0, name.length() - SUFFIX.length()));
+            MappedByteBuffer buffer = map(file, Files.size(file));
+            if (buffer.capacity() < HEADER_LENGTH || buffer.getInt(0) != SEGMENT_MAGIC) {
+                throw new IOException("Not a log segment: " + file);
+            }
+            int position = buffer.getInt(COMMITTED_OFFSET);
+            long unread = 0;
+            int header;
+            while ((header = headerAt(buffer, position)) > 0) {  // count the uncommitted records
+                unread++;
+                maxRecovered = Math.max(maxRecovered, header - 1);
+                position += 4 + header - 1;
+            }
+            lastEnded = header == END_OF_SEGMENT;
+            if (unread == 0 && (lastEnded || i < files.size() - 1)) {  // all committed, it only survived a crash
+                tryDelete(file);
+                continue;
+            }
+            segments.addLast(new Segment(index, file, buffer));
+            appendedCount += unread;
+            nextSegmentIndex = index + 1;
+            appendBuffer = buffer.duplicate();
+            appendBuffer.position(position);
+        }
+        maxRecordLength = Math.max(segmentSize - HEADER_LENGTH - 4, maxRecovered);
+        if (segments.isEmpty() || lastEnded) {
+            newSegment();
+        }
+        readSegment = segments.peekFirst();
+        readBuffer = readSegment.buffer.duplicate();
+        readBuffer.position(readSegment.buffer.getInt(COMMITTED_OFFSET));
+    }
+
+    /**
+     * @return the largest record that can be read: one that fits in a new segment, or a bigger one recovered from a
+     *     segment written with a bigger segment size
+     */
+    public int getMaxRecordLength() {
+        return maxRecordLength;
+    }
+
+    /**
+     * Appends a record, starting a new segment file if it doesn't fit in the current one.
+     * @throws IOException if a new segment file can't be created, e.g. the disk is full
+     */
+    public synchronized void append(byte[] src, int offset, int length) throws IOException {
+        if (length < 0 || length > segmentSize - HEADER_LENGTH - 4) {
+            throw new IllegalArgumentException("Invalid record length: " + length);
+        }
+        int position = appendBuffer.position();
+        if (position + 4 + length > appendBuffer.capacity()) {
+            if (position + 4 <= appendBuffer.capacity()) {
+                appendBuffer.putInt(position, END_OF_SEGMENT);
+            }
+            newSegment();
+            position = appendBuffer.position();
+        }
+        appendBuffer.position(position + 4);
+        appendBuffer.put(src, offset, length);
+        if (appendBuffer.remaining() >= 4) {  // the end, in case there are leftovers of a record cut short by a crash
+            appendBuffer.putInt(appendBuffer.position(), 0);
+        }
+        appendBuffer.putInt(position, length + 1);  // last, so a record cut short by a crash is never read
+        appendedCount++;  // publishes the record to the reader
+    }
+
+    /** @return the length of the next record, to size the array to {@link #read} it into, or -1 if there are none */
+    public int peekLength() {
+        return readCount == appendedCount ? -1 : nextHeader() - 1;
+    }
+
+    /**
+     * Reads the next record.
+     * @param dst where to copy it, at least {@link #peekLength()} (or {@link #getMaxRecordLength()}) long
+     * @return the record's length, or -1 if there are no unread records
+     */
+    public int read(byte[] dst) {
+        if (readCount == appendedCount) {
+            return -1;
+        }
+        int length = nextHeader() - 1;
+        readBuffer.position(readBuffer.position() + 4);
+        readBuffer.get(dst, 0, length);
+        readCount++;
+        return length;
+    }
+
+    /** @return the position after the last record read, to {@link #commit} once the reader is finished with it */
+    public long getReadPosition() {
+        return readSegment.index << 32 | readBuffer.position();
+    }
+
+    /**
+     * Marks the records before a position as done with, so they won't be read again on reopening; segments that are
+     * left with nothing uncommitted are deleted.
+     * @param position a position from {@link #getReadPosition()}
+     */
+    public void commit(long position) {
+        long index = position >>> 32;
+        synchronized (this) {
+            for (int i = pendingDeletes.size() - 1; i >= 0; i--) {  // retry the ones that were still mapped
+                if (tryDeleteNow(pendingDeletes.get(i))) {
+                    pendingDeletes.remove(i);
+                }
+            }
+            while (segments.peekFirst().index < index) {  // never the segment being appended to, that's the newest
+                Segment segment = segments.removeFirst();
+                segment.buffer.putInt(COMMITTED_OFFSET, segment.buffer.capacity());  // all done, in case it's not deleted
+                tryDelete(segment.file);
+            }
+            segments.peekFirst().buffer.putInt(COMMITTED_OFFSET, (int)position);
+        }
+    }
+
+    /** @return the number of records appended but not read yet */
+    public long getUnreadCount() {
+        return appendedCount - readCount;
+    }
+
+    /** @return the number of segment files */
+    public synchronized int getSegmentCount() {
+        return segments.size();
+    }
+
+    /** Writes the mapped segments out to the disk, so that they also survive a power failure. */
+    public synchronized void force() {
+        for (Segment segment : segments) {
+            segment.buffer.force();
+        }
+    }
+
+    /** Forces the segments to the disk; the log must not be used afterwards. */
+    @Override
+    public void close() {
+        force();
+    }
+
+    /** on opening, or when the current segment is full, with the lock held */
+    private void newSegment() throws IOException {
+        Path file = directory.resolve(String.format("%020d%s", nextSegmentIndex, SUFFIX));
+        MappedByteBuffer buffer = map(file, segmentSize);
+        buffer.putInt(0, SEGMENT_MAGIC);
+        buffer.putInt(COMMITTED_OFFSET, HEADER_LENGTH);
+        segments.addLast(new Segment(nextSegmentIndex++, file, buffer));
+        appendBuffer = buffer.duplicate();
+        appendBuffer.position(HEADER_LENGTH);
+    }
+
+    /** deletes a file, or remembers to retry later, with the lock held */
+    private void tryDelete(Path file) {
+        if (!tryDeleteNow(file)) {
+            pendingDeletes.add(file);
+        }
+    }
+
+    private static boolean tryDeleteNow(Path file) {
+        try {
+            Files.deleteIfExists(file);
+            return true;
+        } catch (IOException e) {  // e.g. still mapped, on Windows
+            return false;
+        }
+    }
+
+    private static MappedByteBuffer map(Path file, long size) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ,
+                StandardOpenOption.WRITE)) {
+            return channel.map(FileChannel.MapMode.READ_WRITE, 0, size);  // stays valid after the channel is closed
+        }
+    }
+
+    /** @return the record header at a position, or 0 if there's no room for one */
+    /** @return the header of the next record, which has been appended, moving on to the next segment if need be */
+    private int nextHeader() {
+        int header;
+        while ((header = headerAt(readBuffer, readBuffer.position())) <= 0) {  // it must be in the next segment
+            synchronized (this) {
+                for (Segment segment : segments) {
+                    if (segment.index > readSegment.index) {
+                        readSegment = segment;
+                        break;
+                    }
+                }
+            }
+            readBuffer = readSegment.buffer.duplicate();
+            readBuffer.position(HEADER_LENGTH);
+        }
+        return header;
+    }
+
+    private static int headerAt(ByteBuffer buffer, int position) {
+        return position + 4 <= buffer.capacity() ? buffer.getInt(position) : 0;
+    }
+
+    private static final class Segment {
+        private final long index;
+        private final Path file;
+        private final MappedByteBuffer buffer;
+
+        private Segment(long index, Path file, MappedByteBuffer buffer) {
+            this.index = index;
+            this.file = file;
+            this.buffer = buffer;
+        }
+    }
+}
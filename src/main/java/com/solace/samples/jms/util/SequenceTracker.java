@@ -0,0 +1,111 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * Tracks per-stream sequence numbers (e.g. one stream per publisher and topic, see {@link PayloadHeader}) to count
+ * how many messages were expected, received, lost and duplicated.
+ * <p>
+ * Stream state is kept in primitive arrays indexed through a {@link LongIntHashMap}, so recording a message on a
+ * known stream allocates nothing.  The first message seen on a stream sets its starting point and counts no loss,
+ * since the subscriber may have joined part-way through.  {@link #record} is called by one processing thread; the
+ * {@code take...()} methods may be called from a reporting thread.
+ */
+public final class SequenceTracker {
+
+    /** counter indexes in the array returned by {@link #takeIntervalTotals()} */
+    public static final int EXPECTED = 0, RECEIVED = 1, LOST = 2, DUPLICATES = 3;
+
+    private final LongIntHashMap streamSlots = new LongIntHashMap(1024);
+    private long[] nextExpectedSequence = new long[1024];
+    private long[] lostPerStream = new long[1024];  // this interval
+    private String[] streamNames = new String[1024];
+    private final long[] intervalTotals = new long[4];
+
+    /**
+     * Records one message.
+     * @param streamKey identifies the stream
+     * @param sequence the message's sequence number in the stream
+     * @return true if this is the first message seen on the stream, see {@link #nameStream}
+     */
+    public synchronized boolean record(long streamKey, long sequence) {
+        intervalTotals[RECEIVED]++;
+        int slot = streamSlots.get(streamKey);
+        if (slot == LongIntHashMap.MISSING) {
+            slot = streamSlots.size();
+            if (slot == nextExpectedSequence.length) {
+                int capacity = slot * 2;
+                nextExpectedSequence = Arrays.copyOf(nextExpectedSequence, capacity);
+                lostPerStream = Arrays.copyOf(lostPerStream, capacity);
+                streamNames = Arrays.copyOf(streamNames, capacity);
+            }
+            streamSlots.put(streamKey, slot);
+            nextExpectedSequence[slot] = sequence + 1;
+            intervalTotals[EXPECTED]++;
+            return true;
+        }
+        long expected = nextExpectedSequence[slot];
+        if (sequence >= expected) {
+            long lost = sequence - expected;  // any gap in the sequence was lost
+            lostPerStream[slot] += lost;
+            intervalTotals[LOST] += lost;
+            intervalTotals[EXPECTED] += lost + 1;
+            nextExpectedSequence[slot] = sequence + 1;
+        } else {
+            intervalTotals[DUPLICATES]++;  // already seen (or already counted as lost, if reordered)
+        }
+        return false;
+    }
+
+    /** Gives a stream a readable name, e.g. its topic, for the loss reports. */
+    public synchronized void nameStream(long streamKey, String name) {
+        int slot = streamSlots.get(streamKey);
+        if (slot != LongIntHashMap.MISSING) {
+            streamNames[slot] = name;
+        }
+    }
+
+    /**
+     * @return the expected, received, lost and duplicate counts since the previous call, indexed by
+     *     {@link #EXPECTED}, {@link #RECEIVED}, {@link #LOST} and {@link #DUPLICATES}
+     */
+    public synchronized long[] takeIntervalTotals() {
+        long[] totals = intervalTotals.clone();
+        Arrays.fill(intervalTotals, 0);
+        return totals;
+    }
+
+    /**
+     * Adds the streams that lost messages since the previous call to the given map, keyed by stream name.
+     * @param lostByName the map to add to
+     */
+    public synchronized void takeIntervalLosses(Map<String,Long> lostByName) {
+        for (int slot = 0; slot < streamSlots.size(); slot++) {
+            if (lostPerStream[slot] > 0) {
+                String name = streamNames[slot] != null ? streamNames[slot] : "stream " + slot;
+                lostByName.merge(name, lostPerStream[slot], Long::sum);
+                lostPerStream[slot] = 0;
+            }
+        }
+    }
+}
@@ -0,0 +1,187 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+/**
+ * Hands items off from one dispatching thread (e.g. the JMS dispatcher thread in {@code onMessage()}) to a pool of
+ * worker threads, so that slow processing doesn't hold up the dispatcher.
+ * <p>
+ * Each item comes with a shard key (e.g. the hash of a topic level) and all items with the same key go to the same
+ * worker, in order, so per-key ordering is preserved.  Each worker has its own bounded {@link RingBuffer}; when it
+ * is full, {@link #dispatch} blocks the dispatching thread until there's room, applying backpressure instead of
+ * letting a backlog grow without limit.
+ * <p>
+ * Workers can also take items in batches: whatever is queued (up to a maximum) is handed to the handler in one call,
+ * so per-call costs can be amortized.  Batches are never held back waiting to fill, so batching adds no latency.
+ *
+ * @param <T> the item type
+ */
+public final class ShardedDispatcher<T> implements AutoCloseable {
+
+    private static final long CLOSE_TIMEOUT_MS = 5000;  // to wait for the workers to finish what's queued
+
+    private final List<Worker> workers = new ArrayList<>();
+    private final List<Thread> threads = new ArrayList<>();
+    private final LongAdder backpressureNanos = new LongAdder();
+    private final LongAdder backpressureCount = new LongAdder();
+    private volatile boolean isShutdown = false;
+
+    /**
+     * @param name a name for the worker threads
+     * @param numWorkers the number of worker threads
+     * @param queueCapacity the capacity of each worker's queue
+     * @param handler processes one item, called on a worker thread
+     */
+    public ShardedDispatcher(String name, int numWorkers, int queueCapacity, Consumer<T> handler) {
+        this(name, numWorkers, queueCapacity, 1, batch -> handler.accept(batch.get(0)));
+    }
+
+    /**
+     * @param name a name for the worker threads
+     * @param numWorkers the number of worker threads
+     * @param queueCapacity the capacity of each worker's queue
+     * @param maxBatchSize the maximum number of items passed to the handler in one call
+     * @param batchHandler processes a batch of one or more items, in queue order, called on a worker thread; the
+     *     list is reused after the call returns, so must not be kept
+     */
+    public ShardedDispatcher(String name, int numWorkers, int queueCapacity, int maxBatchSize,
+            Consumer<List<T>> batchHandler) {
+        for (int i = 0; i < numWorkers; i++) {
+            Worker worker = new Worker(new RingBuffer<>(queueCapacity), Math.max(1, maxBatchSize), batchHandler);
+            workers.add(worker);
+            Thread thread = new Thread(worker, name + "-" + i);
+            thread.setDaemon(true);
+            worker.threadId = thread.getId();
+            threads.add(thread);
+            thread.start();
+        }
+    }
+
+    /**
+     * Queues an item for the worker that owns its shard key, waiting if that worker's queue is full.
+     * @param shardKey any int, e.g. a hash code; equal keys go to the same worker
+     * @param item the item, not null
+     * @throws InterruptedException if interrupted while waiting for queue space
+     */
+    public void dispatch(int shardKey, T item) throws InterruptedException {
+        Worker worker = workers.get(Math.floorMod(shardKey, workers.size()));
+        long waitedNanos = worker.queue.put(item);
+        if (waitedNanos > 0) {
+            backpressureNanos.add(waitedNanos);
+            backpressureCount.increment();
+        }
+    }
+
+    /** @return the number of worker threads */
+    public int getNumWorkers() {
+        return workers.size();
+    }
+
+    /** @return the current depth of a worker's queue */
+    public int getQueueDepth(int worker) {
+        return workers.get(worker).queue.size();
+    }
+
+    /** @return the number of items processed by a worker so far */
+    public long getProcessedCount(int worker) {
+        return workers.get(worker).processedCount;
+    }
+
+    /** @return the {@link Thread#getId() id} of a worker's thread, e.g. for {@link ThreadAllocationMeter} */
+    public long getWorkerThreadId(int worker) {
+        return workers.get(worker).threadId;
+    }
+
+    /** @return how many times the dispatching thread had to wait for queue space since the previous call */
+    public long getAndResetBackpressureCount() {
+        return backpressureCount.sumThenReset();
+    }
+
+    /** @return the total time the dispatching thread waited for queue space since the previous call, in ms */
+    public long getAndResetBackpressureMillis() {
+        return TimeUnit.NANOSECONDS.toMillis(backpressureNanos.sumThenReset());
+    }
+
+    /**
+     * Stops the workers, once they have processed what's already queued, and waits (up to a few seconds) for them to
+     * finish.  Don't dispatch any more items, nor call this from a worker.
+     */
+    @Override
+    public void close() {
+        isShutdown = true;
+        long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(CLOSE_TIMEOUT_MS);
+        try {
+            for (Thread thread : threads) {
+                TimeUnit.NANOSECONDS.timedJoin(thread, Math.max(1, deadline - System.nanoTime()));
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();  // stop waiting
+        }
+    }
+
+    private class Worker implements Runnable {
+
+        private final RingBuffer<T> queue;
+        private final int maxBatchSize;
+        private final Consumer<List<T>> batchHandler;
+        private final List<T> batch;  // reused for every batch
+        private volatile long processedCount = 0;  // only written by this worker's thread
+        private long threadId;  // set before the thread starts
+
+        private Worker(RingBuffer<T> queue, int maxBatchSize, Consumer<List<T>> batchHandler) {
+            this.queue = queue;
+            this.maxBatchSize = maxBatchSize;
+            this.batchHandler = batchHandler;
+            batch = new ArrayList<>(maxBatchSize);
+        }
+
+        @Override
+        public void run() {
+            Backoff backoff = new Backoff();
+            while (true) {
+                T item;
+                while (batch.size() < maxBatchSize && (item = queue.poll()) != null) {
+                    batch.add(item);
+                }
+                if (batch.isEmpty()) {
+                    if (isShutdown) {
+                        return;
+                    }
+                    backoff.idle();
+                    continue;
+                }
+                backoff.reset();
+                try {
+                    batchHandler.accept(batch);
+                } catch (RuntimeException e) {
+                    System.out.println("### Caught in worker " + Thread.currentThread().getName() + ": " + e);
+                }
+                processedCount += batch.size();
+                batch.clear();
+            }
+        }
+    }
+}
@@ -0,0 +1,59 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.lang.management.ManagementFactory;
+
+/**
+ * Reads how many bytes a thread has allocated on the heap, using the HotSpot extension of {@code ThreadMXBean}.
+ * Sampling this before and after a known number of operations gives the allocation cost per operation, which is
+ * what drives young-GC frequency in a hot loop.
+ */
+public final class ThreadAllocationMeter {
+
+    private static final com.sun.management.ThreadMXBean THREAD_MX_BEAN = initThreadMXBean();
+
+    private ThreadAllocationMeter() {}
+
+    private static com.sun.management.ThreadMXBean initThreadMXBean() {
+        java.lang.management.ThreadMXBean threadMXBean = ManagementFactory.getThreadMXBean();
+        if (threadMXBean instanceof com.sun.management.ThreadMXBean) {
+            com.sun.management.ThreadMXBean hotspotMXBean = (com.sun.management.ThreadMXBean)threadMXBean;
+            if (hotspotMXBean.isThreadAllocatedMemorySupported()) {
+                hotspotMXBean.setThreadAllocatedMemoryEnabled(true);
+                return hotspotMXBean;
+            }
+        }
+        return null;  // not a HotSpot-based JVM
+    }
+
+    /** @return true if per-thread allocation can be measured on this JVM */
+    public static boolean isSupported() {
+        return THREAD_MX_BEAN != null;
+    }
+
+    /**
+     * @param threadId the thread to sample, see {@link Thread#getId()}
+     * @return total bytes allocated by that thread so far, or -1 if unsupported or the thread is not alive
+     */
+    public static long getAllocatedBytes(long threadId) {
+        return THREAD_MX_BEAN == null || threadId <= 0 ? -1 : THREAD_MX_BEAN.getThreadAllocatedBytes(threadId);
+    }
+}
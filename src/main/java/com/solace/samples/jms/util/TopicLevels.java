@@ -0,0 +1,95 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+/**
+ * Helpers for working with the levels of a Solace topic string (e.g. {@code solace/samples/jms/direct/pub/A})
+ * in place, without {@code String.split()} or substrings, so they allocate nothing.
+ */
+public final class TopicLevels {
+
+    private TopicLevels() {}
+
+    /**
+     * @param topic a topic string
+     * @param level the 0-based index of the level
+     * @return the hash of that level's characters (as {@code String.hashCode()} would compute it), or 0 if the topic
+     *     has fewer levels
+     */
+    public static int hashLevel(String topic, int level) {
+        int start = levelStart(topic, level);
+        if (start < 0) {
+            return 0;
+        }
+        int hash = 0;
+        for (int i = start; i < topic.length(); i++) {
+            char c = topic.charAt(i);
+            if (c == '/') {
+                break;
+            }
+            hash = 31 * hash + c;
+        }
+        return hash;
+    }
+
+    /**
+     * @param topic a topic string
+     * @param level the 0-based index of the level
+     * @return the index of the first character of that level, or -1 if the topic has fewer levels
+     */
+    public static int levelStart(String topic, int level) {
+        int start = 0;
+        for (int i = 0; i < level; i++) {
+            int slash = topic.indexOf('/', start);
+            if (slash < 0) {
+                return -1;
+            }
+            start = slash + 1;
+        }
+        return start;
+    }
+
+    /**
+     * @param topic a topic string
+     * @param levelStart the index of the first character of a level, see {@link #levelStart}
+     * @return the index just past the last character of that level
+     */
+    public static int levelEnd(String topic, int levelStart) {
+        int slash = topic.indexOf('/', levelStart);
+        return slash < 0 ? topic.length() : slash;
+    }
+
+    /**
+     * Appends the given level of a topic, and all the levels after it, to a builder, e.g. level 1 of {@code a/b/c}
+     * appends {@code b/c}.  This replaces {@code topic.split("/", level + 1)[level]}.
+     * @param builder the builder to append to
+     * @param topic a topic string
+     * @param level the 0-based index of the first level to append
+     * @return true if appended, false if the topic has fewer levels
+     */
+    public static boolean appendFromLevel(StringBuilder builder, String topic, int level) {
+        int start = levelStart(topic, level);
+        if (start < 0) {
+            return false;
+        }
+        builder.append(topic, start, topic.length());
+        return true;
+    }
+}
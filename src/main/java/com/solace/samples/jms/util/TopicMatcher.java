@@ -0,0 +1,116 @@
+/*
+ * Licensed to the Apache Software Foundation (ASF) under one
+ * or more contributor license agreements.  See the NOTICE file
+ * distributed with this work for additional information
+ * regarding copyright ownership.  The ASF licenses this file
+ * to you under the Apache License, Version 2.0 (the
+ * "License"); you may not use this file except in compliance
+ * with the License.  You may obtain a copy of the License at
+ *
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing,
+ * software distributed under the License is distributed on an
+ * "AS IS" BASIS, WITHOUT WARRANTIES OR CONDITIONS OF ANY
+ * KIND, either express or implied.  See the License for the
+ * specific language governing permissions and limitations
+ * under the License.
+ */
+
+package com.solace.samples.jms.util;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A Solace topic subscription, compiled once, that can then be matched against topics without allocating.
+ * <p>
+ * Solace wildcard semantics are supported: a level that is just {@code *} matches any one level, a level ending in
+ * {@code *} (e.g. {@code pub*}) matches any level starting with that prefix, and a final level of {@code >} matches
+ * one or more remaining levels.  A {@code *} anywhere else in a level, or a {@code >} that is not the whole last
+ * level, is a literal character.  This replaces {@code String.matches(regex)}, which compiles the regex every call.
+ * Instances are immutable and thread-safe.
+ */
+public final class TopicMatcher {
+
+    private static final byte LITERAL = 0, PREFIX = 1, ANY_REST = 2;
+
+    private final String subscription;
+    private final String[] levelText;  // the literal text, or the prefix before the '*'
+    private final byte[] levelKind;
+
+    private TopicMatcher(String subscription, String[] levelText, byte[] levelKind) {
+        this.subscription = subscription;
+        this.levelText = levelText;
+        this.levelKind = levelKind;
+    }
+
+    /**
+     * @param subscription a topic subscription, e.g. {@code solace/samples/*}{@code /direct/pub/>}
+     * @return the compiled matcher
+     */
+    public static TopicMatcher compile(String subscription) {
+        List<String> levels = new ArrayList<>();
+        int start = 0;
+        while (true) {
+            int slash = subscription.indexOf('/', start);
+            levels.add(slash < 0 ? subscription.substring(start) : subscription.substring(start, slash));
+            if (slash < 0) {
+                break;
+            }
+            start = slash + 1;
+        }
+        String[] levelText = new String[levels.size()];
+        byte[] levelKind = new byte[levels.size()];
+        for (int i = 0; i < levelText.length; i++) {
+            String level = levels.get(i);
+            if (level.equals(">") && i == levelText.length - 1) {
+                levelKind[i] = ANY_REST;
+                levelText[i] = "";
+            } else if (level.endsWith("*")) {
+                levelKind[i] = PREFIX;
+                levelText[i] = level.substring(0, level.length() - 1);
+            } else {
+                levelKind[i] = LITERAL;
+                levelText[i] = level;
+            }
+        }
+        return new TopicMatcher(subscription, levelText, levelKind);
+    }
+
+    /**
+     * @param topic a topic, with no wildcards
+     * @return true if the topic matches this subscription
+     */
+    public boolean matches(String topic) {
+        int start = 0;
+        final int topicLength = topic.length();
+        for (int i = 0; i < levelKind.length; i++) {
+            if (start > topicLength) {
+                return false;  // the topic has fewer levels than the subscription
+            }
+            if (levelKind[i] == ANY_REST) {
+                return start < topicLength;  // must have at least one more level
+            }
+            int end = topic.indexOf('/', start);
+            if (end < 0) {
+                end = topicLength;
+            }
+            String text = levelText[i];
+            if (levelKind[i] == LITERAL) {
+                if (end - start != text.length() || !topic.regionMatches(start, text, 0, text.length())) {
+                    return false;
+                }
+            } else if (end - start < text.length() || !topic.regionMatches(start, text, 0, text.length())) {
+                return false;  // PREFIX
+            }
+            start = end + 1;
+        }
+        return start > topicLength;  // no levels left over
+    }
+
+    @Override
+    public String toString() {
+        return subscription;
+    }
+}